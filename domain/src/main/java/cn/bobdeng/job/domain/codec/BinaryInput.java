@@ -0,0 +1,88 @@
+package cn.bobdeng.job.domain.codec;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 读取BinaryOutput写入的数据
+ */
+public class BinaryInput {
+    private final ByteBuffer in;
+
+    public BinaryInput(byte[] bytes) {
+        this(ByteBuffer.wrap(bytes));
+    }
+
+    public BinaryInput(ByteBuffer in) {
+        this.in = in;
+    }
+
+    public int readByte() {
+        return in.get();
+    }
+
+    public long readFixedLong() {
+        return in.getLong();
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint");
+    }
+
+    public int readVarInt() {
+        return (int) readVarLong();
+    }
+
+    public String readString() {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    public byte[] readBytes() {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * 读取writeBytes写入的内容，不复制，返回的ByteBuffer和原来的共享数据
+     */
+    public ByteBuffer readSlice() {
+        int length = readVarInt() - 1;
+        if (length < 0) {
+            return null;
+        }
+        ByteBuffer slice = in.slice();
+        slice.limit(length);
+        in.position(in.position() + length);
+        return slice;
+    }
+
+    public boolean hasRemaining() {
+        return in.hasRemaining();
+    }
+}
@@ -0,0 +1,62 @@
+package cn.bobdeng.job.domain.codec;
+
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 紧凑二进制格式的写入，整数用varint，字符串和字节数组前面写长度
+ */
+public class BinaryOutput {
+    private final ByteArrayOutputStream out;
+
+    public BinaryOutput(int initialSize) {
+        this.out = new ByteArrayOutputStream(initialSize);
+    }
+
+    public BinaryOutput writeByte(int value) {
+        out.write(value);
+        return this;
+    }
+
+    public BinaryOutput writeFixedLong(long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+        return this;
+    }
+
+    public BinaryOutput writeVarLong(long value) {
+        Preconditions.checkArgument(value >= 0, "negative value: %s", value);
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+        return this;
+    }
+
+    /**
+     * 长度加1保存，0表示null
+     */
+    public BinaryOutput writeString(String value) {
+        return writeBytes(value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 长度加1保存，0表示null
+     */
+    public BinaryOutput writeBytes(byte[] bytes) {
+        if (bytes == null) {
+            return writeVarLong(0);
+        }
+        writeVarLong(bytes.length + 1L);
+        out.write(bytes, 0, bytes.length);
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,166 @@
+package cn.bobdeng.job.domain.codec;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.entity.JobStep;
+import cn.bobdeng.job.domain.entity.JobSummary;
+import cn.bobdeng.job.domain.entity.JobSummaryQuery;
+import cn.bobdeng.job.domain.entity.JobTemplate;
+import com.google.common.base.Preconditions;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * JOB的紧凑二进制格式，只保存JOB和每个步骤的运行状态，步骤的静态配置按配置版本从JobTemplate还原。
+ * 格式（整数都是varint，第一个字节是格式版本）：
+ * version(1) | 流水号 | jobId | configVersion(8字节) | 保存版本 | beginTime | params | 步骤数 | 每个步骤：标记 tryTimes dispatchTime
+ * 步骤按模板里的顺序保存。
+ */
+public class JobCodec {
+    public static final byte FORMAT_V1 = 1;
+    private static final int STEP_SUCCESS = 1;
+    private static final int STEP_EXECUTING = 1 << 1;
+    //原来的数据没有这一位，读出来按没有发送处理
+    private static final int STEP_SENT = 1 << 2;
+    private static final int SERIAL_STRING = 0;
+    private static final int SERIAL_UUID = 1;
+    private final JobTemplateResolver templateResolver;
+
+    public JobCodec(JobTemplateResolver templateResolver) {
+        this.templateResolver = templateResolver;
+    }
+
+    public byte[] encode(Job job) {
+        BinaryOutput out = new BinaryOutput(64 + job.getSteps().size() * 3
+                + (job.getParams() == null ? 0 : job.getParams().length()));
+        out.writeByte(FORMAT_V1);
+        writeSerial(out, job.getId());
+        out.writeString(job.getJobId())
+                .writeFixedLong(job.getConfigVersion())
+                .writeVarLong(job.getVersion())
+                .writeVarLong(job.getBeginTime())
+                .writeString(job.getParams());
+        List<JobStep> steps = job.getSteps();
+        out.writeVarLong(steps.size());
+        steps.forEach(step -> writeStepState(out, step));
+        return out.toByteArray();
+    }
+
+    public Job decode(byte[] bytes) {
+        return decode(new BinaryInput(bytes));
+    }
+
+    /**
+     * 直接从ByteBuffer解码，比如内存映射的文件，不改变buffer的position
+     */
+    public Job decode(ByteBuffer buffer) {
+        return decode(new BinaryInput(buffer.duplicate()));
+    }
+
+    private Job decode(BinaryInput in) {
+        int format = in.readByte();
+        Preconditions.checkArgument(format == FORMAT_V1, "unknown job format: %s", format);
+        String id = readSerial(in);
+        String jobId = in.readString();
+        long configVersion = in.readFixedLong();
+        long version = in.readVarLong();
+        long beginTime = in.readVarLong();
+        String params = in.readString();
+        JobTemplate template = templateResolver.resolve(jobId, configVersion);
+        Job job = template.newJob(id, params, beginTime);
+        job.setVersion(version);
+        List<JobStep> steps = job.getSteps();
+        int stepCount = in.readVarInt();
+        Preconditions.checkArgument(stepCount == steps.size(), "step count %s not match job config %s", stepCount, jobId);
+        //JOB刚创建，状态索引还没有建立，可以直接设置步骤状态
+        steps.forEach(step -> readStepState(in, step));
+        return job;
+    }
+
+    /**
+     * 只读取摘要，不还原步骤，jobId不符合条件时不再继续读取
+     *
+     * @return 不符合条件时返回null
+     */
+    public JobSummary decodeSummary(ByteBuffer buffer, JobSummaryQuery query) {
+        BinaryInput in = new BinaryInput(buffer.duplicate());
+        int format = in.readByte();
+        Preconditions.checkArgument(format == FORMAT_V1, "unknown job format: %s", format);
+        String id = readSerial(in);
+        String jobId = in.readString();
+        if (!query.matchesJobId(jobId)) {
+            return null;
+        }
+        long configVersion = in.readFixedLong();
+        in.readVarLong();
+        long beginTime = in.readVarLong();
+        //跳过params
+        in.readSlice();
+        JobSummary summary = JobSummary.builder()
+                .id(id)
+                .jobId(jobId)
+                .name(templateResolver.resolve(jobId, configVersion).getJobConfig().getName())
+                .beginTime(beginTime)
+                .build();
+        int stepCount = in.readVarInt();
+        for (int i = 0; i < stepCount; i++) {
+            int flags = in.readByte();
+            int tryTimes = in.readVarInt();
+            in.readVarLong();
+            summary.addStep(JobSummary.stateOf((flags & STEP_SUCCESS) != 0, (flags & STEP_EXECUTING) != 0, tryTimes));
+        }
+        return query.matches(summary) ? summary : null;
+    }
+
+    /**
+     * 步骤的运行状态：标记 tryTimes dispatchTime
+     */
+    public static void writeStepState(BinaryOutput out, JobStep step) {
+        out.writeByte((step.isSuccess() ? STEP_SUCCESS : 0) | (step.isExecuting() ? STEP_EXECUTING : 0) | (step.isSent() ? STEP_SENT : 0))
+                .writeVarLong(step.getTryTimes())
+                .writeVarLong(step.getDispatchTime());
+    }
+
+    public static void readStepState(BinaryInput in, JobStep step) {
+        int flags = in.readByte();
+        step.setSuccess((flags & STEP_SUCCESS) != 0)
+                .setExecuting((flags & STEP_EXECUTING) != 0)
+                .setSent((flags & STEP_SENT) != 0)
+                .setTryTimes(in.readVarInt())
+                .setDispatchTime(in.readVarLong());
+    }
+
+    /**
+     * 标准格式的UUID保存为16个字节
+     */
+    private static void writeSerial(BinaryOutput out, String serial) {
+        UUID uuid = parseUuid(serial);
+        if (uuid == null) {
+            out.writeByte(SERIAL_STRING).writeString(serial);
+        } else {
+            out.writeByte(SERIAL_UUID)
+                    .writeFixedLong(uuid.getMostSignificantBits())
+                    .writeFixedLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID parseUuid(String serial) {
+        if (serial == null || serial.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(serial);
+            return uuid.toString().equals(serial) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String readSerial(BinaryInput in) {
+        if (in.readByte() == SERIAL_UUID) {
+            return new UUID(in.readFixedLong(), in.readFixedLong()).toString();
+        }
+        return in.readString();
+    }
+}
@@ -0,0 +1,14 @@
+package cn.bobdeng.job.domain.codec;
+
+import cn.bobdeng.job.domain.entity.JobTemplate;
+
+/**
+ * 按JOB ID和配置版本找回JOB模板，反序列化时用来还原步骤的静态配置。
+ * 编码后的JOB会持久化，实现需要能找回重启前的版本，不能只依赖本进程加载过的配置
+ */
+public interface JobTemplateResolver {
+    /**
+     * @return 找不到对应版本时抛出RuntimeException
+     */
+    JobTemplate resolve(String jobId, long configVersion);
+}
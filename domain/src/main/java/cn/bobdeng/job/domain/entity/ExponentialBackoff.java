@@ -0,0 +1,28 @@
+package cn.bobdeng.job.domain.entity;
+
+import com.google.common.base.Preconditions;
+import lombok.Value;
+
+/**
+ * 第n次重试等待 baseMs * multiplier^(n-1)，不超过maxMs
+ */
+@Value
+public class ExponentialBackoff implements RetryBackoff {
+    long baseMs;
+    double multiplier;
+    long maxMs;
+
+    public ExponentialBackoff(long baseMs, double multiplier, long maxMs) {
+        Preconditions.checkArgument(baseMs >= 0, "base must >= 0");
+        Preconditions.checkArgument(multiplier >= 1, "multiplier must >= 1");
+        Preconditions.checkArgument(maxMs >= baseMs, "max must >= base");
+        this.baseMs = baseMs;
+        this.multiplier = multiplier;
+        this.maxMs = maxMs;
+    }
+
+    @Override
+    public long getDelayMs(int retry) {
+        return (long) Math.min(baseMs * Math.pow(multiplier, Math.max(retry - 1, 0)), maxMs);
+    }
+}
@@ -0,0 +1,22 @@
+package cn.bobdeng.job.domain.entity;
+
+import com.google.common.base.Preconditions;
+import lombok.Value;
+
+/**
+ * 每次重试等待同样的时间
+ */
+@Value
+public class FixedBackoff implements RetryBackoff {
+    long delayMs;
+
+    public FixedBackoff(long delayMs) {
+        Preconditions.checkArgument(delayMs >= 0, "delay must >= 0");
+        this.delayMs = delayMs;
+    }
+
+    @Override
+    public long getDelayMs(int retry) {
+        return delayMs;
+    }
+}
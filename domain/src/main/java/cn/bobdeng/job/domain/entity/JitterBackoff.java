@@ -0,0 +1,33 @@
+package cn.bobdeng.job.domain.entity;
+
+import com.google.common.base.Preconditions;
+import lombok.Value;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 去相关的随机等待：第n次重试在 [baseMs, min(maxMs, baseMs * 3^n)] 里随机，
+ * 同时失败的步骤不会在同一时刻一起重试。
+ * 不保存上一次的等待时间，用上一次可能的最大值代替，随机范围和按上一次计算的一样随次数增长
+ */
+@Value
+public class JitterBackoff implements RetryBackoff {
+    long baseMs;
+    long maxMs;
+
+    public JitterBackoff(long baseMs, long maxMs) {
+        Preconditions.checkArgument(baseMs >= 0, "base must >= 0");
+        Preconditions.checkArgument(maxMs >= baseMs, "max must >= base");
+        this.baseMs = baseMs;
+        this.maxMs = maxMs;
+    }
+
+    @Override
+    public long getDelayMs(int retry) {
+        long upper = (long) Math.min(baseMs * Math.pow(3, Math.max(retry, 1)), maxMs);
+        if (upper <= baseMs) {
+            return baseMs;
+        }
+        return ThreadLocalRandom.current().nextLong(baseMs, upper + 1);
+    }
+}
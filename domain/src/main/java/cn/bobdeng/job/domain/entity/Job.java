@@ -1,78 +1,139 @@
 package cn.bobdeng.job.domain.entity;
 
-import com.google.common.base.Preconditions;
-import lombok.AllArgsConstructor;
-import lombok.Builder;
-import lombok.Data;
-import lombok.NoArgsConstructor;
+import lombok.*;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.Set;
-import java.util.UUID;
 import java.util.function.Consumer;
-import java.util.stream.Collectors;
 
 
 /**
  * Created by zhiguodeng on 2017/10/24.
+ * 步骤的运行状态由StepStates索引，JobStep的状态setter会通知所属的Job更新索引
  */
 @Data
-@Builder
-@AllArgsConstructor
 @NoArgsConstructor
+@ToString(exclude = {"graph", "states"})
 public class Job {
     public static final int BASE_RETRY_DELAY_TIME_SECOND = 10;
+    //原来的重试时间：第n次重试等待10^n秒，最长10^5秒
+    public static final RetryBackoff DEFAULT_RETRY_BACKOFF = new ExponentialBackoff(BASE_RETRY_DELAY_TIME_SECOND * 1000L,
+            BASE_RETRY_DELAY_TIME_SECOND, 100000 * 1000L);
     private String id;
     private String jobId;
     private String params;
     private String name;
     private long beginTime;
     private List<JobStep> steps;
+    //每次保存加1，用于判断缓存是否过期
+    private long version;
+    //创建时的配置版本，序列化时只保存运行状态，按版本找回配置
+    private long configVersion;
+    //来自JobConfig，不保存
+    private int priority;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient StepGraph graph;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient StepStates states;
+
+    @Builder
+    public Job(String id, String jobId, String params, String name, long beginTime, List<JobStep> steps,
+               long version, long configVersion, int priority) {
+        this.id = id;
+        this.jobId = jobId;
+        this.params = params;
+        this.name = name;
+        this.beginTime = beginTime;
+        this.steps = steps;
+        this.version = version;
+        this.configVersion = configVersion;
+        this.priority = priority;
+    }
+
+    /**
+     * 原来@AllArgsConstructor生成的构造方法，保留给已有的调用方。graph和states忽略，使用时按步骤重新建立
+     */
+    @Deprecated
+    public Job(String id, String jobId, String params, String name, long beginTime, List<JobStep> steps,
+               long version, long configVersion, int priority, StepGraph graph, StepStates states) {
+        this(id, jobId, params, name, beginTime, steps, version, configVersion, priority);
+    }
+
+    public static Job newJob(JobTemplate jobTemplate, String params) {
+        return jobTemplate.newJob(params);
+    }
 
     public static Job newJob(JobConfig jobConfig, List<JobStepConfig> jobStepConfigs, String params) {
-        String jobSerial = UUID.randomUUID().toString();
-        Job job = Job.builder()
-                .jobId(jobConfig.getId())
-                .id(jobSerial.toString())
-                .name(jobConfig.getName())
-                .beginTime(System.currentTimeMillis())
-                .params(params)
-                .build();
-        List<JobStep> jobSteps = jobStepConfigs.stream()
-                .map(jobStepConfig -> newJobStep(jobSerial, jobStepConfig))
-                .collect(Collectors.toList());
-        job.setSteps(jobSteps);
-        return job;
-    }
-
-    private static JobStep newJobStep(String jobSerial, JobStepConfig jobStepConfig) {
-        return JobStep.builder()
-                .maxTry(jobStepConfig.getMaxTry())
-                .jobId(jobStepConfig.getJobId())
-                .executing(false)
-                .delay(jobStepConfig.getDelay())
-                .jobSerial(jobSerial)
-                .methodName(jobStepConfig.getMethodName())
-                .preJobs(jobStepConfig.getPreJobs())
-                .stepId(jobStepConfig.getStepId())
-                .stepName(jobStepConfig.getStepName())
-                .tryTimes(0)
-                .success(false)
-                .build();
+        return JobTemplate.of(jobConfig, jobStepConfigs).newJob(params);
+    }
+
+    /**
+     * 只读，步骤状态通过JobStep的setter或者Job的方法修改
+     */
+    public List<JobStep> getSteps() {
+        return steps == null ? null : Collections.unmodifiableList(steps);
+    }
+
+    public void setSteps(List<JobStep> steps) {
+        if (this.steps != null) {
+            this.steps.forEach(step -> step.detach(this));
+        }
+        this.steps = steps;
+        this.graph = null;
+        this.states = null;
+    }
+
+    /**
+     * 使用同一配置已经编译好的依赖图，JobTemplate创建JOB时使用
+     */
+    Job withGraph(StepGraph graph) {
+        this.graph = graph;
+        this.states = null;
+        steps.forEach(step -> step.attach(this));
+        return this;
+    }
+
+    private StepGraph graph() {
+        if (graph == null) {
+            graph = StepGraph.compile(steps);
+            steps.forEach(step -> step.attach(this));
+        }
+        return graph;
+    }
+
+    private StepStates states() {
+        if (states == null) {
+            states = new StepStates(graph(), steps);
+        }
+        return states;
+    }
+
+    /**
+     * 步骤通过setter修改后调用，stepId或者preJobs变化时依赖图和索引重新建立
+     */
+    void stepChanged(JobStep step, boolean structural) {
+        if (structural) {
+            graph = null;
+            states = null;
+            return;
+        }
+        //状态索引还没有建立时不需要更新，建立时会读取步骤当前状态
+        if (states != null) {
+            int index = graph.indexOf(step.getStepId());
+            if (index >= 0 && steps.get(index) == step) {
+                states.update(index);
+            }
+        }
     }
 
     public boolean isOver() {
-        return !steps.stream()
-                .filter(jobStep -> !isJobStepOver(jobStep))
-                .findFirst()
-                .isPresent();
+        return states().isOver();
     }
     public boolean isJobSuccessOver() {
-        return !steps.stream()
-                .filter(jobStep -> !jobStep.isSuccess())
-                .findAny()
-                .isPresent();
+        return states().isSuccessOver();
     }
 
     /**
@@ -81,21 +142,15 @@ public class Job {
      * @return 返回延迟重试时间（毫秒）
      */
     public long getDelayTime(JobStep step) {
-        Preconditions.checkArgument(step.getTryTimes() < 6, "try times must < 6");
         if (step.getTryTimes() <= 1) {  // 第一次尝试延迟时间为0
             return step.getDelay();
         }
-        return (long) Math.pow(BASE_RETRY_DELAY_TIME_SECOND, step.getTryTimes() - 1) * 1000;
+        RetryBackoff retryBackoff = step.getRetryBackoff() == null ? DEFAULT_RETRY_BACKOFF : step.getRetryBackoff();
+        return retryBackoff.getDelayMs(step.getTryTimes() - 1);
     }
 
     public void runNextSteps(Consumer<JobStep> jobStepConsumer) {
-        Set<String> overSteps = steps.stream()
-                .filter(jobStep -> jobStep.isSuccess())
-                .map(jobStep -> jobStep.getStepId())
-                .collect(Collectors.toSet());
-        steps.stream()
-                .filter(jobStep -> isMyTurn(jobStep, overSteps))
-                .forEach(jobStepConsumer);
+        states().forEachReady(jobStepConsumer);
     }
     public JobMethod getStepMethod(String stepId) {
         return Optional.ofNullable(getJobStep(stepId))
@@ -117,11 +172,16 @@ public class Job {
         step.setTryTimes(step.getTryTimes() + 1);
         step.setExecuting(true);
     }
-    public void retryStep(String stepId) {
-        steps.stream()
-                .filter(jobExecuting -> jobExecuting.getStepId().equals(stepId))
-                .findFirst()
-                .ifPresent(this::resetTryTimes);
+    /**
+     * @return 重试的步骤，步骤不存在时返回null
+     */
+    public JobStep retryStep(String stepId) {
+        int index = graph().indexOf(stepId);
+        if (index < 0) {
+            return null;
+        }
+        resetTryTimes(steps.get(index));
+        return steps.get(index);
     }
     private void resetTryTimes(JobStep jobExecuting) {
         jobExecuting.setTryTimes(0);
@@ -129,39 +189,31 @@ public class Job {
         jobExecuting.setSuccess(false);
     }
     public JobStep getJobStep(String stepId) {
-        return steps.stream()
-                .filter(jobExecuting -> jobExecuting.getStepId().equals(stepId))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("step not exit."));
-    }
-    private boolean isMyTurn(JobStep jobStep, Set<String> overSteps) {
-        if (jobStep.isSuccess() || jobStep.isExecuting()) {
-            return false;
-        }
-        if (jobStep.getTryTimes() >= jobStep.getMaxTry()) {
-            return false;
-        }
-        if (jobStep.getPreJobs() == null) {
-            return true;
-        }
-        if (jobStep.getPreJobs().stream()
-                .filter(jobStepId -> !overSteps.contains(jobStepId))
-                .findAny()
-                .isPresent()) {
-            return false;
+        JobStep step = findJobStep(stepId);
+        if (step == null) {
+            throw new RuntimeException("step not exit.");
         }
-        return true;
+        return step;
     }
 
-    private boolean isJobStepOver(JobStep jobStep) {
-        return jobStep.isSuccess() || jobStep.getTryTimes() >= jobStep.getMaxTry();
+    /**
+     * @return 步骤不存在时返回null
+     */
+    public JobStep findJobStep(String stepId) {
+        int index = graph().indexOf(stepId);
+        return index < 0 ? null : steps.get(index);
     }
 
-    public void updateStepResult(JobResult jobResult) {
-        steps.stream()
-                .filter(jobExecuting -> jobExecuting.getStepId().equals(jobResult.getJobStepId()))
-                .findFirst()
-                .ifPresent(jobExecuting -> updateJobResult(jobExecuting, jobResult));
+    /**
+     * @return 更新的步骤，步骤不存在时返回null
+     */
+    public JobStep updateStepResult(JobResult jobResult) {
+        int index = graph().indexOf(jobResult.getJobStepId());
+        if (index < 0) {
+            return null;
+        }
+        updateJobResult(steps.get(index), jobResult);
+        return steps.get(index);
     }
     private void updateJobResult(JobStep jobExecuting, JobResult jobResult) {
         jobExecuting.setSuccess(jobResult.isSuccess());
@@ -169,9 +221,7 @@ public class Job {
     }
 
     public int getExecutingStepCount() {
-        return (int)steps.stream()
-                .filter(JobStep::isExecuting)
-                .count();
+        return states().getExecutingCount();
     }
 
 }
@@ -12,4 +12,5 @@ import lombok.NoArgsConstructor;
 public class JobConfig {
     private String id;
     private String name;
+    private int priority;//数字越大越先发送，默认0；不影响配置版本，修改后执行中的JOB也按新的优先级发送
 }
@@ -0,0 +1,23 @@
+package cn.bobdeng.job.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 批量启动JOB时每一行的结果
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobStartResult {
+    public enum Status {
+        ACCEPTED, DUPLICATE
+    }
+
+    private int index;//在参数列表里的位置
+    private String jobSerialId;//作业唯一ID，重复时为空
+    private Status status;
+}
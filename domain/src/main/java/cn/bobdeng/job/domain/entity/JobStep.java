@@ -1,18 +1,23 @@
 package cn.bobdeng.job.domain.entity;
 
-import lombok.AllArgsConstructor;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Data;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.ToString;
 import lombok.experimental.Accessors;
 
 import java.util.Set;
 
+/**
+ * 影响运行状态的字段（success、executing、tryTimes、maxTry、stepId、preJobs）修改时通知所属的Job
+ */
 @Data
-@Builder
-@AllArgsConstructor
 @NoArgsConstructor
 @Accessors(chain = true)
+@ToString(exclude = "owner")
 public class JobStep {
     private String jobSerial;
     private String jobId;
@@ -23,6 +28,86 @@ public class JobStep {
     private int tryTimes;
     private int delay;//延迟
     private int maxTry;
+    private int timeout;//超时时间（毫秒），从发送时间开始计算，0表示不超时
     private String methodName;
     private boolean executing;
+    private long dispatchTime;//发送时间（毫秒时间戳），先记录计划时间，排队后发送时改成实际时间，重启后据此恢复延迟发送
+    private boolean sent;//这次尝试已经由某个节点认领发送，重启后不再发送，只按超时重试
+    private RetryBackoff retryBackoff;//为空时使用Job.DEFAULT_RETRY_BACKOFF
+    //建立了状态索引的Job，不保存
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient Job owner;
+
+    @Builder
+    public JobStep(String jobSerial, String jobId, String stepId, boolean success, Set<String> preJobs, String stepName,
+                   int tryTimes, int delay, int maxTry, int timeout, String methodName, boolean executing,
+                   long dispatchTime, RetryBackoff retryBackoff) {
+        this.jobSerial = jobSerial;
+        this.jobId = jobId;
+        this.stepId = stepId;
+        this.success = success;
+        this.preJobs = preJobs;
+        this.stepName = stepName;
+        this.tryTimes = tryTimes;
+        this.delay = delay;
+        this.maxTry = maxTry;
+        this.timeout = timeout;
+        this.methodName = methodName;
+        this.executing = executing;
+        this.dispatchTime = dispatchTime;
+        this.retryBackoff = retryBackoff;
+    }
+
+    public JobStep setStepId(String stepId) {
+        this.stepId = stepId;
+        changed(true);
+        return this;
+    }
+
+    public JobStep setPreJobs(Set<String> preJobs) {
+        this.preJobs = preJobs;
+        changed(true);
+        return this;
+    }
+
+    public JobStep setSuccess(boolean success) {
+        this.success = success;
+        changed(false);
+        return this;
+    }
+
+    public JobStep setExecuting(boolean executing) {
+        this.executing = executing;
+        changed(false);
+        return this;
+    }
+
+    public JobStep setTryTimes(int tryTimes) {
+        this.tryTimes = tryTimes;
+        changed(false);
+        return this;
+    }
+
+    public JobStep setMaxTry(int maxTry) {
+        this.maxTry = maxTry;
+        changed(false);
+        return this;
+    }
+
+    void attach(Job job) {
+        owner = job;
+    }
+
+    void detach(Job job) {
+        if (owner == job) {
+            owner = null;
+        }
+    }
+
+    private void changed(boolean structural) {
+        if (owner != null) {
+            owner.stepChanged(this, structural);
+        }
+    }
 }
@@ -20,4 +20,5 @@ public class JobStepConfig {
     private String methodName;
     private Set<String> preJobs;
     private int timeout;
+    private RetryBackoff retryBackoff;//为空时使用Job.DEFAULT_RETRY_BACKOFF
 }
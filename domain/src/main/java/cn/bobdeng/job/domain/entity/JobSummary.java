@@ -0,0 +1,81 @@
+package cn.bobdeng.job.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 正在执行的JOB的摘要，不包含步骤列表，只有各状态的步骤数
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobSummary {
+    public enum StepState {
+        WAITING,//还没有发送过
+        EXECUTING,
+        SUCCESS,
+        FAILED//执行失败，等待重试
+    }
+
+    private String id;//作业唯一ID
+    private String jobId;
+    private String name;
+    private long beginTime;
+    private int waitingSteps;
+    private int executingSteps;
+    private int successSteps;
+    private int failedSteps;
+
+    public static JobSummary of(Job job) {
+        JobSummary summary = JobSummary.builder()
+                .id(job.getId())
+                .jobId(job.getJobId())
+                .name(job.getName())
+                .beginTime(job.getBeginTime())
+                .build();
+        job.getSteps().forEach(step -> summary.addStep(stateOf(step.isSuccess(), step.isExecuting(), step.getTryTimes())));
+        return summary;
+    }
+
+    public static StepState stateOf(boolean success, boolean executing, int tryTimes) {
+        if (executing) {
+            return StepState.EXECUTING;
+        }
+        if (success) {
+            return StepState.SUCCESS;
+        }
+        return tryTimes == 0 ? StepState.WAITING : StepState.FAILED;
+    }
+
+    public void addStep(StepState state) {
+        switch (state) {
+            case WAITING:
+                waitingSteps++;
+                break;
+            case EXECUTING:
+                executingSteps++;
+                break;
+            case SUCCESS:
+                successSteps++;
+                break;
+            default:
+                failedSteps++;
+        }
+    }
+
+    public int getStepCount(StepState state) {
+        switch (state) {
+            case WAITING:
+                return waitingSteps;
+            case EXECUTING:
+                return executingSteps;
+            case SUCCESS:
+                return successSteps;
+            default:
+                return failedSteps;
+        }
+    }
+}
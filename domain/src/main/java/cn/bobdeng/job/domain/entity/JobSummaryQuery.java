@@ -0,0 +1,27 @@
+package cn.bobdeng.job.domain.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 查询JOB摘要的过滤条件，条件为空时不过滤
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class JobSummaryQuery {
+    private String jobId;
+    //至少有一个步骤是这个状态
+    private JobSummary.StepState stepState;
+
+    public boolean matchesJobId(String jobId) {
+        return this.jobId == null || this.jobId.equals(jobId);
+    }
+
+    public boolean matches(JobSummary summary) {
+        return matchesJobId(summary.getJobId()) && (stepState == null || summary.getStepCount(stepState) > 0);
+    }
+}
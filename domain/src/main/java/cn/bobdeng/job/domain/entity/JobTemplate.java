@@ -0,0 +1,132 @@
+package cn.bobdeng.job.domain.entity;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * JOB模板，由JOB配置预先构建好步骤，新建JOB时只复制步骤。
+ * configVersion是配置内容的指纹，配置不变时版本不变
+ */
+@Getter
+public class JobTemplate {
+    private final JobConfig jobConfig;
+    private final List<JobStepConfig> stepConfigs;
+    private final List<JobStep> steps;
+    private final StepGraph graph;
+    private final long configVersion;
+
+    private JobTemplate(JobConfig jobConfig, List<JobStepConfig> stepConfigs, List<JobStep> steps) {
+        this.jobConfig = jobConfig;
+        this.stepConfigs = stepConfigs;
+        this.steps = steps;
+        this.graph = StepGraph.compile(steps);
+        this.configVersion = fingerprint(jobConfig, steps);
+    }
+
+    private static long fingerprint(JobConfig jobConfig, List<JobStep> steps) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        putString(hasher, jobConfig.getId());
+        putString(hasher, jobConfig.getName());
+        steps.forEach(step -> {
+            putString(hasher, step.getStepId());
+            putString(hasher, step.getStepName());
+            putString(hasher, step.getMethodName());
+            hasher.putInt(step.getDelay()).putInt(step.getMaxTry()).putInt(step.getTimeout());
+            //自己实现的RetryBackoff只按类名区分
+            putString(hasher, step.getRetryBackoff() == null ? null : step.getRetryBackoff().getClass().getName());
+            if (isBuiltIn(step.getRetryBackoff())) {
+                putString(hasher, step.getRetryBackoff().toString());
+            }
+            if (step.getPreJobs() == null) {
+                hasher.putInt(-1);
+            } else {
+                hasher.putInt(step.getPreJobs().size());
+                step.getPreJobs().stream().sorted().forEach(preJob -> putString(hasher, preJob));
+            }
+        });
+        return hasher.hash().asLong();
+    }
+
+    private static boolean isBuiltIn(RetryBackoff retryBackoff) {
+        return retryBackoff instanceof FixedBackoff || retryBackoff instanceof ExponentialBackoff || retryBackoff instanceof JitterBackoff;
+    }
+
+    private static void putString(Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+        } else {
+            hasher.putInt(value.length()).putUnencodedChars(value);
+        }
+    }
+
+    public static JobTemplate of(JobConfig jobConfig, List<JobStepConfig> jobStepConfigs) {
+        ImmutableList.Builder<JobStep> steps = ImmutableList.builder();
+        jobStepConfigs.forEach(jobStepConfig -> steps.add(newTemplateStep(jobStepConfig)));
+        return new JobTemplate(jobConfig, ImmutableList.copyOf(jobStepConfigs), steps.build());
+    }
+
+    private static JobStep newTemplateStep(JobStepConfig jobStepConfig) {
+        return JobStep.builder()
+                .maxTry(jobStepConfig.getMaxTry())
+                .timeout(jobStepConfig.getTimeout())
+                .retryBackoff(jobStepConfig.getRetryBackoff())
+                .jobId(jobStepConfig.getJobId())
+                .executing(false)
+                .delay(jobStepConfig.getDelay())
+                .methodName(jobStepConfig.getMethodName())
+                .preJobs(jobStepConfig.getPreJobs() == null ? null : ImmutableSet.copyOf(jobStepConfig.getPreJobs()))
+                .stepId(jobStepConfig.getStepId())
+                .stepName(jobStepConfig.getStepName())
+                .tryTimes(0)
+                .success(false)
+                .build();
+    }
+
+    public Job newJob(String params) {
+        return newJob(UUID.randomUUID().toString(), params, System.currentTimeMillis());
+    }
+
+    /**
+     * 用已有的流水号创建JOB，步骤都是初始状态，反序列化时使用
+     */
+    public Job newJob(String jobSerial, String params, long beginTime) {
+        List<JobStep> jobSteps = new ArrayList<>(steps.size());
+        steps.forEach(step -> jobSteps.add(newJobStep(jobSerial, step)));
+        return Job.builder()
+                .jobId(jobConfig.getId())
+                .id(jobSerial)
+                .name(jobConfig.getName())
+                .beginTime(beginTime)
+                .params(params)
+                .steps(jobSteps)
+                .configVersion(configVersion)
+                .priority(jobConfig.getPriority())
+                .build()
+                .withGraph(graph);
+    }
+
+    private JobStep newJobStep(String jobSerial, JobStep templateStep) {
+        return JobStep.builder()
+                .maxTry(templateStep.getMaxTry())
+                .timeout(templateStep.getTimeout())
+                .retryBackoff(templateStep.getRetryBackoff())
+                .jobId(templateStep.getJobId())
+                .executing(false)
+                .delay(templateStep.getDelay())
+                .jobSerial(jobSerial)
+                .methodName(templateStep.getMethodName())
+                .preJobs(templateStep.getPreJobs())
+                .stepId(templateStep.getStepId())
+                .stepName(templateStep.getStepName())
+                .tryTimes(0)
+                .success(false)
+                .build();
+    }
+}
@@ -0,0 +1,13 @@
+package cn.bobdeng.job.domain.entity;
+
+/**
+ * 步骤失败后重试前的等待时间，每次重试都会调用，实现不应该分配对象。
+ * 内置FixedBackoff、ExponentialBackoff、JitterBackoff，也可以自己实现，自己实现的不能保存在EmbeddedJobDAO里
+ */
+public interface RetryBackoff {
+    /**
+     * @param retry 第几次重试，从1开始
+     * @return 等待时间（毫秒）
+     */
+    long getDelayMs(int retry);
+}
@@ -0,0 +1,72 @@
+package cn.bobdeng.job.domain.entity;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编译后的步骤依赖图，只包含步骤之间的关系，不可变，同一配置的JOB可以共享
+ */
+public class StepGraph {
+    private final Map<String, Integer> indexes;
+    private final int[][] successors;
+    private final int[] predecessorCounts;
+
+    private StepGraph(Map<String, Integer> indexes, int[][] successors, int[] predecessorCounts) {
+        this.indexes = indexes;
+        this.successors = successors;
+        this.predecessorCounts = predecessorCounts;
+    }
+
+    public static StepGraph compile(List<JobStep> steps) {
+        int size = steps.size();
+        Map<String, Integer> indexes = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            indexes.putIfAbsent(steps.get(i).getStepId(), i);
+        }
+        List<List<Integer>> successorLists = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            successorLists.add(new ArrayList<>());
+        }
+        int[] predecessorCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (steps.get(i).getPreJobs() == null) {
+                continue;
+            }
+            //不存在的前置步骤也计数，这样的步骤永远不会执行
+            predecessorCounts[i] = steps.get(i).getPreJobs().size();
+            for (String preJob : steps.get(i).getPreJobs()) {
+                Integer preIndex = indexes.get(preJob);
+                if (preIndex != null) {
+                    successorLists.get(preIndex).add(i);
+                }
+            }
+        }
+        int[][] successors = new int[size][];
+        for (int i = 0; i < size; i++) {
+            successors[i] = successorLists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        return new StepGraph(indexes, successors, predecessorCounts);
+    }
+
+    /**
+     * @return 步骤不存在时返回-1
+     */
+    public int indexOf(String stepId) {
+        Integer index = indexes.get(stepId);
+        return index == null ? -1 : index;
+    }
+
+    public int size() {
+        return predecessorCounts.length;
+    }
+
+    int[] successors(int index) {
+        return successors[index];
+    }
+
+    int predecessorCount(int index) {
+        return predecessorCounts[index];
+    }
+}
@@ -0,0 +1,110 @@
+package cn.bobdeng.job.domain.entity;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * JOB步骤的运行状态索引，由StepGraph和步骤当前状态构建，步骤变化时增量更新
+ */
+class StepStates {
+    private final StepGraph graph;
+    private final List<JobStep> steps;
+    private final BitSet success;
+    private final BitSet executing;
+    private final BitSet exhausted;
+    private final BitSet ready;
+    //还没有成功的前置步骤数
+    private final int[] remainingPredecessors;
+    private int successCount;
+    private int executingCount;
+    //成功或者重试次数用完的步骤数
+    private int overCount;
+
+    StepStates(StepGraph graph, List<JobStep> steps) {
+        int size = graph.size();
+        this.graph = graph;
+        this.steps = steps;
+        this.success = new BitSet(size);
+        this.executing = new BitSet(size);
+        this.exhausted = new BitSet(size);
+        this.ready = new BitSet(size);
+        this.remainingPredecessors = new int[size];
+        for (int i = 0; i < size; i++) {
+            remainingPredecessors[i] = graph.predecessorCount(i);
+        }
+        for (int i = 0; i < size; i++) {
+            updateState(i);
+        }
+        for (int i = 0; i < size; i++) {
+            updateReady(i);
+        }
+    }
+
+    /**
+     * 步骤状态变化后调用
+     */
+    void update(int index) {
+        boolean successChanged = success.get(index) != steps.get(index).isSuccess();
+        updateState(index);
+        if (successChanged) {
+            for (int successor : graph.successors(index)) {
+                updateReady(successor);
+            }
+        }
+        updateReady(index);
+    }
+
+    private void updateState(int index) {
+        JobStep step = steps.get(index);
+        boolean wasSuccess = success.get(index);
+        boolean wasOver = wasSuccess || exhausted.get(index);
+        boolean isExhausted = step.getTryTimes() >= step.getMaxTry();
+        success.set(index, step.isSuccess());
+        exhausted.set(index, isExhausted);
+        if (executing.get(index) != step.isExecuting()) {
+            executingCount += step.isExecuting() ? 1 : -1;
+            executing.set(index, step.isExecuting());
+        }
+        if (wasSuccess != step.isSuccess()) {
+            successCount += step.isSuccess() ? 1 : -1;
+            int delta = step.isSuccess() ? -1 : 1;
+            for (int successor : graph.successors(index)) {
+                remainingPredecessors[successor] += delta;
+            }
+        }
+        boolean isOver = step.isSuccess() || isExhausted;
+        if (wasOver != isOver) {
+            overCount += isOver ? 1 : -1;
+        }
+    }
+
+    private void updateReady(int index) {
+        JobStep step = steps.get(index);
+        ready.set(index, remainingPredecessors[index] == 0
+                && !step.isSuccess()
+                && !step.isExecuting()
+                && step.getTryTimes() < step.getMaxTry());
+    }
+
+    /**
+     * 按步骤顺序遍历可以执行的步骤，遍历时可以修改步骤状态
+     */
+    void forEachReady(Consumer<JobStep> consumer) {
+        for (int i = ready.nextSetBit(0); i >= 0; i = ready.nextSetBit(i + 1)) {
+            consumer.accept(steps.get(i));
+        }
+    }
+
+    boolean isOver() {
+        return overCount == graph.size();
+    }
+
+    boolean isSuccessOver() {
+        return successCount == graph.size();
+    }
+
+    int getExecutingCount() {
+        return executingCount;
+    }
+}
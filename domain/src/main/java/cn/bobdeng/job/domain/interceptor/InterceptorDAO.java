@@ -5,9 +5,19 @@ import cn.bobdeng.job.domain.entity.StepInterceptor;
 import java.util.List;
 
 public interface InterceptorDAO {
+    long UNVERSIONED = -1;
+
     List<StepInterceptor> getStepInterceptors();
 
     void addStepInterceptor(StepInterceptor interceptor);
 
     void removeStepInterceptor(String jobId, String stepId);
+
+    /**
+     * 拦截器版本号，每次增加或删除拦截器后递增，多个节点共享。存储支持版本号时覆盖这个方法
+     * @return 不支持版本号时返回UNVERSIONED，每次refresh都重新加载
+     */
+    default long getVersion() {
+        return UNVERSIONED;
+    }
 }
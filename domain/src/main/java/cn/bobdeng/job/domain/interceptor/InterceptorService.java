@@ -11,4 +11,17 @@ public interface InterceptorService {
     void addStepInterceptor(StepInterceptor interceptor);
 
     void removeStepInterceptor(String jobId, String stepId);
+
+    /**
+     * 从本地索引查找步骤的拦截器
+     * @param jobId
+     * @param stepId
+     * @return 没有拦截器时返回null
+     */
+    StepInterceptor getStepInterceptor(String jobId, String stepId);
+
+    /**
+     * 检查拦截器版本，有变化时重新加载索引，供定时任务或其他节点的变更通知调用
+     */
+    void refresh();
 }
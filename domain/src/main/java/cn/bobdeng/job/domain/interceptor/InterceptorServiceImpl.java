@@ -1,13 +1,25 @@
 package cn.bobdeng.job.domain.interceptor;
 
 import cn.bobdeng.job.domain.entity.StepInterceptor;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
 
 import java.util.List;
 
 @Data
 public class InterceptorServiceImpl implements InterceptorService {
+    public static final long DEFAULT_REFRESH_INTERVAL_MS = 10000;
     private InterceptorDAO interceptorDAO;
+    //查找时距离上次检查超过这个时间就调用refresh，小于等于0时只在本节点变更或者外部调用refresh时刷新
+    private long refreshIntervalMs = DEFAULT_REFRESH_INTERVAL_MS;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile StepInterceptorIndex index;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private volatile long checkedAt;
 
     @Override
     public List<StepInterceptor> getStepInterceptors() {
@@ -17,10 +29,43 @@ public class InterceptorServiceImpl implements InterceptorService {
     @Override
     public void addStepInterceptor(StepInterceptor interceptor) {
         interceptorDAO.addStepInterceptor(interceptor);
+        reload();
     }
 
     @Override
     public void removeStepInterceptor(String jobId, String stepId) {
         interceptorDAO.removeStepInterceptor(jobId, stepId);
+        reload();
+    }
+
+    @Override
+    public StepInterceptor getStepInterceptor(String jobId, String stepId) {
+        StepInterceptorIndex current = index;
+        if (current == null) {
+            current = reload();
+        } else if (refreshIntervalMs > 0 && System.currentTimeMillis() - checkedAt >= refreshIntervalMs) {
+            refresh();
+            current = index;
+        }
+        return current.get(jobId, stepId);
+    }
+
+    @Override
+    public void refresh() {
+        checkedAt = System.currentTimeMillis();
+        StepInterceptorIndex current = index;
+        long version = interceptorDAO.getVersion();
+        if (current == null || version == InterceptorDAO.UNVERSIONED || current.getVersion() != version) {
+            reload();
+        }
+    }
+
+    private synchronized StepInterceptorIndex reload() {
+        //先取版本号再取列表，中间有变更时下次refresh会再次加载
+        long version = interceptorDAO.getVersion();
+        StepInterceptorIndex loaded = StepInterceptorIndex.of(interceptorDAO.getStepInterceptors(), version);
+        index = loaded;
+        checkedAt = System.currentTimeMillis();
+        return loaded;
     }
 }
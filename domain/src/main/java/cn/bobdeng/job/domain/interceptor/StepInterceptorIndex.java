@@ -0,0 +1,46 @@
+package cn.bobdeng.job.domain.interceptor;
+
+import cn.bobdeng.job.domain.entity.StepInterceptor;
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+
+import java.util.Collection;
+
+/**
+ * 拦截器索引，按(jobId, stepId)查找，不可变，整体替换
+ */
+public class StepInterceptorIndex {
+    public static final StepInterceptorIndex EMPTY = new StepInterceptorIndex(ImmutableTable.of(), -1);
+    private final ImmutableTable<String, String, StepInterceptor> interceptors;
+    private final long version;
+
+    private StepInterceptorIndex(ImmutableTable<String, String, StepInterceptor> interceptors, long version) {
+        this.interceptors = interceptors;
+        this.version = version;
+    }
+
+    public static StepInterceptorIndex of(Collection<StepInterceptor> stepInterceptors, long version) {
+        //同一步骤有多个拦截器时保留最后一个
+        Table<String, String, StepInterceptor> table = HashBasedTable.create();
+        stepInterceptors.forEach(interceptor -> table.put(interceptor.getJobId(), interceptor.getJobStepId(), interceptor));
+        return new StepInterceptorIndex(ImmutableTable.copyOf(table), version);
+    }
+
+    /**
+     * 查找步骤的拦截器
+     *
+     * @return 没有拦截器时返回null
+     */
+    public StepInterceptor get(String jobId, String stepId) {
+        return interceptors.get(jobId, stepId);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return interceptors.size();
+    }
+}
@@ -0,0 +1,127 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.entity.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * 启动JOB、重试等命令交给JobExecutor执行，调用线程不等待DAO和锁，查询直接调用。
+ * 交给JobExecutor的命令方法返回时还没有执行，失败时只记录日志并计入JobExecutor.getFailed()。
+ * 结果默认在调用线程处理，返回时已经写入，失败时异常抛给调用方，执行端可以重发
+ */
+public class AsyncJobService implements JobService {
+    private final JobService delegate;
+    private final JobExecutor jobExecutor;
+    private final boolean asyncResults;
+
+    public AsyncJobService(JobService delegate, JobExecutor jobExecutor) {
+        this(delegate, jobExecutor, false);
+    }
+
+    /**
+     * @param asyncResults 结果也交给JobExecutor处理，返回时结果还没有写入，写入失败的结果只能靠步骤超时重试
+     */
+    public AsyncJobService(JobService delegate, JobExecutor jobExecutor, boolean asyncResults) {
+        this.delegate = delegate;
+        this.jobExecutor = jobExecutor;
+        this.asyncResults = asyncResults;
+    }
+
+    @Override
+    public void startJob(String jobId, String params) {
+        jobExecutor.execute(() -> delegate.startJob(jobId, params));
+    }
+
+    /**
+     * 需要返回每行的结果，在调用线程执行
+     */
+    @Override
+    public List<JobStartResult> startJobs(String jobId, List<String> paramsList) {
+        return delegate.startJobs(jobId, paramsList);
+    }
+
+    @Override
+    public void onJobResult(JobResult jobResult) {
+        onResult(() -> delegate.onJobResult(jobResult));
+    }
+
+    @Override
+    public void onJobResults(Collection<JobResult> jobResults) {
+        onResult(() -> delegate.onJobResults(jobResults));
+    }
+
+    @Override
+    public void onForwardedJobResults(Collection<JobResult> jobResults) {
+        onResult(() -> delegate.onForwardedJobResults(jobResults));
+    }
+
+    private void onResult(Runnable command) {
+        if (asyncResults) {
+            jobExecutor.execute(command);
+        } else {
+            command.run();
+        }
+    }
+
+    @Override
+    public void retryJob(String jobId, String stepId) {
+        jobExecutor.execute(() -> delegate.retryJob(jobId, stepId));
+    }
+
+    @Override
+    public void recoverDelayedSteps() {
+        delegate.recoverDelayedSteps();
+    }
+
+    @Override
+    public List<Job> getExecutingJob() {
+        return delegate.getExecutingJob();
+    }
+
+    @Override
+    public List<Job> getExecutingJob(String afterJobSerialId, int limit) {
+        return delegate.getExecutingJob(afterJobSerialId, limit);
+    }
+
+    @Override
+    public List<JobSummary> getExecutingJobSummaries(JobSummaryQuery query, String afterJobSerialId, int limit) {
+        return delegate.getExecutingJobSummaries(query, afterJobSerialId, limit);
+    }
+
+    @Override
+    public void forEachExecutingJobSummary(JobSummaryQuery query, Consumer<JobSummary> consumer) {
+        delegate.forEachExecutingJobSummary(query, consumer);
+    }
+
+    @Override
+    public List<JobStep> getExecutingJobSteps(String jobId) {
+        return delegate.getExecutingJobSteps(jobId);
+    }
+
+    @Override
+    public void executeStepByHttp(String jobId, String stepId, String host) {
+        jobExecutor.execute(() -> delegate.executeStepByHttp(jobId, stepId, host));
+    }
+
+    @Override
+    public void deleteJob(String jobId) {
+        delegate.deleteJob(jobId);
+    }
+
+    @Override
+    public List<JobConfig> getAllConfigJob() {
+        return delegate.getAllConfigJob();
+    }
+
+    @Override
+    public List<JobStepConfig> getJobConfigSteps(String jobId) {
+        return delegate.getJobConfigSteps(jobId);
+    }
+
+    @Override
+    public void reloadJobConfig(String jobId) {
+        delegate.reloadJobConfig(jobId);
+    }
+}
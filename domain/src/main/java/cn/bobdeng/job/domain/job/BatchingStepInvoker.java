@@ -0,0 +1,164 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.entity.JobMethod;
+import com.google.common.base.Preconditions;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * 按jobMethod合并发送的StepInvoker，同一个方法的调用在lingerMs内或者攒够maxBatchSize个后
+ * 通过一次invokeAll发送，JOB扇出很多步骤时减少每次发送的开销。
+ * invokeAsync返回的Future在所在的批次发送完成时完成，批次发送失败时异常完成
+ */
+@Log
+public class BatchingStepInvoker implements StepInvoker {
+    public static final long DEFAULT_LINGER_MS = 5;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+    private final StepInvoker delegate;
+    private final long lingerMs;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    //按方法名等待发送的调用，用自身加锁
+    private final Map<String, List<Call>> pending = new HashMap<>();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder dispatches = new LongAdder();
+
+    public BatchingStepInvoker(StepInvoker delegate) {
+        this(delegate, DEFAULT_LINGER_MS, DEFAULT_MAX_BATCH_SIZE, newScheduler());
+    }
+
+    public BatchingStepInvoker(StepInvoker delegate, long lingerMs, int maxBatchSize, ScheduledExecutorService scheduler) {
+        Preconditions.checkArgument(lingerMs >= 0, "linger must >= 0");
+        Preconditions.checkArgument(maxBatchSize > 0, "max batch size must > 0");
+        this.delegate = delegate;
+        this.lingerMs = lingerMs;
+        this.maxBatchSize = maxBatchSize;
+        this.scheduler = scheduler;
+    }
+
+    private static class Call {
+        private final JobMethod stepMethod;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Call(JobMethod stepMethod) {
+            this.stepMethod = stepMethod;
+        }
+    }
+
+    private static ScheduledExecutorService newScheduler() {
+        return Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-batch-invoker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 不等待发送结果，批次发送失败只记录日志
+     */
+    @Override
+    public void invoke(JobMethod stepMethod) {
+        invokeAsync(stepMethod);
+    }
+
+    @Override
+    public CompletableFuture<Void> invokeAsync(JobMethod stepMethod) {
+        Call call = new Call(stepMethod);
+        if (lingerMs == 0 || maxBatchSize == 1) {
+            send(Collections.singletonList(call));
+            return call.future;
+        }
+        String method = stepMethod.getJobMethod();
+        List<Call> full = null;
+        synchronized (pending) {
+            List<Call> batch = pending.get(method);
+            if (batch == null) {
+                batch = new ArrayList<>();
+                pending.put(method, batch);
+                scheduler.schedule(() -> flush(method), lingerMs, TimeUnit.MILLISECONDS);
+            }
+            batch.add(call);
+            if (batch.size() >= maxBatchSize) {
+                full = pending.remove(method);
+            }
+        }
+        if (full != null) {
+            send(full);
+        }
+        return call.future;
+    }
+
+    @Override
+    public void invokeAll(List<JobMethod> stepMethods) {
+        Map<String, List<Call>> groups = new LinkedHashMap<>();
+        stepMethods.forEach(stepMethod -> groups.computeIfAbsent(stepMethod.getJobMethod(), key -> new ArrayList<>()).add(new Call(stepMethod)));
+        groups.values().forEach(this::send);
+    }
+
+    @Override
+    public void invokeJobMethodViaHttp(String host, JobMethod jobMethod) {
+        delegate.invokeJobMethodViaHttp(host, jobMethod);
+    }
+
+    /**
+     * 立即发送所有等待中的调用，停止前调用
+     */
+    public void flush() {
+        List<List<Call>> all;
+        synchronized (pending) {
+            all = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        all.forEach(this::send);
+    }
+
+    private void flush(String method) {
+        List<Call> batch;
+        synchronized (pending) {
+            batch = pending.remove(method);
+        }
+        if (batch != null) {
+            send(batch);
+        }
+    }
+
+    private void send(List<Call> batch) {
+        batches.increment();
+        dispatches.add(batch.size());
+        List<JobMethod> stepMethods = new ArrayList<>(batch.size());
+        batch.forEach(call -> stepMethods.add(call.stepMethod));
+        try {
+            delegate.invokeAll(stepMethods);
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, "invoke batch failed, method: " + stepMethods.get(0).getJobMethod() + ", size: " + batch.size(), e);
+            batch.forEach(call -> call.future.completeExceptionally(e));
+            return;
+        }
+        batch.forEach(call -> call.future.complete(null));
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getDispatches() {
+        return dispatches.sum();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) dispatches.sum() / count;
+    }
+}
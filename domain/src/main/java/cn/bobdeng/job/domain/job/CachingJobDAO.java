@@ -0,0 +1,218 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.codec.JobTemplateResolver;
+import cn.bobdeng.job.domain.entity.*;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 缓存JOB配置的JobDAO，配置按jobId缓存为JobTemplate，reloadJobConfig时失效。
+ * 加载过的每个配置版本都会保留，用于还原按旧配置创建、还在执行的JOB；本进程没有加载过的版本从JobDAO读取
+ */
+public class CachingJobDAO implements JobDAO, JobTemplateResolver {
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+    public static final long DEFAULT_EXPIRE_IN_MS = 10 * 60 * 1000;
+    private final JobDAO jobDAO;
+    private final LoadingCache<String, JobTemplate> templates;
+    private final ConcurrentHashMap<String, JobTemplate> templateVersions = new ConcurrentHashMap<>();
+
+    public CachingJobDAO(JobDAO jobDAO) {
+        this(jobDAO, DEFAULT_MAXIMUM_SIZE, DEFAULT_EXPIRE_IN_MS);
+    }
+
+    public CachingJobDAO(JobDAO jobDAO, long maximumSize, long expireInMs) {
+        this.jobDAO = jobDAO;
+        this.templates = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireInMs, TimeUnit.MILLISECONDS)
+                .build(new CacheLoader<String, JobTemplate>() {
+                    @Override
+                    public JobTemplate load(String jobId) {
+                        return loadTemplate(jobId);
+                    }
+                });
+    }
+
+    private JobTemplate loadTemplate(String jobId) {
+        JobConfig jobConfig = jobDAO.getJobConfig(jobId);
+        if (jobConfig == null) {
+            throw new RuntimeException("job config not exist: " + jobId);
+        }
+        JobTemplate template = JobTemplate.of(jobConfig, jobDAO.getJobConfigSteps(jobId));
+        templateVersions.putIfAbsent(versionKey(jobId, template.getConfigVersion()), template);
+        return template;
+    }
+
+    private static String versionKey(String jobId, long configVersion) {
+        return jobId + "@" + configVersion;
+    }
+
+    @Override
+    public JobTemplate resolve(String jobId, long configVersion) {
+        JobTemplate template = getJobTemplate(jobId, configVersion);
+        if (template == null) {
+            throw new RuntimeException("job config version not exist: " + versionKey(jobId, configVersion));
+        }
+        return template;
+    }
+
+    /**
+     * 先找当前配置和本进程加载过的版本，都没有时从JobDAO读取并保留
+     */
+    @Override
+    public JobTemplate getJobTemplate(String jobId, long configVersion) {
+        JobTemplate template = getJobTemplate(jobId);
+        if (template.getConfigVersion() == configVersion) {
+            return template;
+        }
+        String versionKey = versionKey(jobId, configVersion);
+        template = templateVersions.get(versionKey);
+        if (template == null) {
+            template = jobDAO.getJobTemplate(jobId, configVersion);
+            if (template != null) {
+                templateVersions.putIfAbsent(versionKey, template);
+            }
+        }
+        return template;
+    }
+
+    public JobTemplate getJobTemplate(String jobId) {
+        try {
+            return templates.getUnchecked(jobId);
+        } catch (UncheckedExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    @Override
+    public JobConfig getJobConfig(String jobId) {
+        return getJobTemplate(jobId).getJobConfig();
+    }
+
+    @Override
+    public List<JobStepConfig> getJobConfigSteps(String jobId) {
+        return getJobTemplate(jobId).getStepConfigs();
+    }
+
+    @Override
+    public Job newJob(String jobId, String params) {
+        return getJobTemplate(jobId).newJob(params);
+    }
+
+    /**
+     * 配置只解析一次
+     */
+    @Override
+    public List<Job> newJobs(String jobId, List<String> paramsList) {
+        JobTemplate template = getJobTemplate(jobId);
+        return paramsList.stream().map(template::newJob).collect(Collectors.toList());
+    }
+
+    @Override
+    public void reloadJobConfig(String jobId) {
+        jobDAO.reloadJobConfig(jobId);
+        templates.invalidate(jobId);
+    }
+
+    @Override
+    public void saveJob(Job job) {
+        jobDAO.saveJob(job);
+    }
+
+    @Override
+    public void lock(String jobId) {
+        jobDAO.lock(jobId);
+    }
+
+    @Override
+    public void releaseLock(String jobId) {
+        jobDAO.releaseLock(jobId);
+    }
+
+    @Override
+    public void saveSteps(Job job) {
+        jobDAO.saveSteps(job);
+    }
+
+    @Override
+    public void saveChangedSteps(Job job, List<JobStep> steps) {
+        jobDAO.saveChangedSteps(job, steps);
+    }
+
+    @Override
+    public Job getJob(String jobId) {
+        return jobDAO.getJob(jobId);
+    }
+
+    @Override
+    public long getJobVersion(String jobId) {
+        return jobDAO.getJobVersion(jobId);
+    }
+
+    @Override
+    public List<Job> findAll() {
+        return jobDAO.findAll();
+    }
+
+    @Override
+    public List<Job> findPage(String afterJobSerialId, int limit) {
+        return jobDAO.findPage(afterJobSerialId, limit);
+    }
+
+    @Override
+    public List<JobSummary> findSummaryPage(JobSummaryQuery query, String afterJobSerialId, int limit) {
+        return jobDAO.findSummaryPage(query, afterJobSerialId, limit);
+    }
+
+    @Override
+    public void forEachSummary(JobSummaryQuery query, Consumer<JobSummary> consumer) {
+        jobDAO.forEachSummary(query, consumer);
+    }
+
+    @Override
+    public void deleteJobById(String jobId) {
+        jobDAO.deleteJobById(jobId);
+    }
+
+    @Override
+    public List<JobConfig> getAllJobConfig() {
+        return jobDAO.getAllJobConfig();
+    }
+
+    @Override
+    public void putKey(String key, String value, int expireInMs) {
+        jobDAO.putKey(key, value, expireInMs);
+    }
+
+    @Override
+    public String getKey(String key) {
+        return jobDAO.getKey(key);
+    }
+
+    @Override
+    public void saveJobs(List<Job> jobs) {
+        jobDAO.saveJobs(jobs);
+    }
+
+    @Override
+    public void putKeys(Map<String, String> keyValues, int expireInMs) {
+        jobDAO.putKeys(keyValues, expireInMs);
+    }
+
+    @Override
+    public Map<String, String> getKeys(Collection<String> keys) {
+        return jobDAO.getKeys(keys);
+    }
+}
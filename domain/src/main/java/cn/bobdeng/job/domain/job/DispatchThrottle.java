@@ -0,0 +1,339 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.entity.JobMethod;
+import com.google.common.base.Preconditions;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * 按方法和jobId限制发送中的步骤数和每秒发送数，发送中指从发送到收到结果。
+ * 超过限制的步骤放进挡住它的那个限制的等待队列，步骤结束释放名额时按先后顺序发送；被每秒发送数挡住的到下一个时间窗口再试。
+ * 计数放在LimitCounterStore里，多个节点共用时限制对所有节点生效；等待队列只在本节点，其他节点释放的名额靠定时重试发现。
+ * 发送中的名额按步骤持有并带租约，本节点定时续租，节点崩溃后名额在租约到期后还回去；
+ * 名额Key由步骤的方法和jobId算出，结果在其他节点处理时由那个节点释放，本节点续租失败后不再持有
+ */
+@Log
+public class DispatchThrottle {
+    public static final long RATE_WINDOW_MS = 1000;
+    public static final long DEFAULT_RETRY_INTERVAL_MS = 1000;
+    public static final long DEFAULT_LEASE_MS = 60000;
+    private static final String IN_FLIGHT = ":in_flight";
+    private static final String RATE = ":rate";
+    private final LimitCounterStore counterStore;
+    private final DelayExecutor delayExecutor;
+    private final long retryIntervalMs;
+    private final long leaseMs;
+    private final ConcurrentHashMap<String, Limit> methodLimits = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Limit> jobLimits = new ConcurrentHashMap<>();
+    //每个限制Key的等待队列
+    private final ConcurrentHashMap<String, Queue<Waiting>> queues = new ConcurrentHashMap<>();
+    //还在等待的步骤，步骤结束或者重新提交后队列里原来的记录作废
+    private final ConcurrentHashMap<String, Waiting> waiting = new ConcurrentHashMap<>();
+    //发送中的步骤持有的名额
+    private final ConcurrentHashMap<String, List<String>> held = new ConcurrentHashMap<>();
+    private final Set<String> scheduledDrains = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean renewScheduled = new AtomicBoolean();
+
+    /**
+     * 为0时不限制
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Limit {
+        private int maxInFlight;
+        private int maxPerSecond;
+    }
+
+    private static class Waiting {
+        private final String stepKey;
+        private final JobMethod stepMethod;
+        private final Consumer<Boolean> dispatch;
+
+        private Waiting(String stepKey, JobMethod stepMethod, Consumer<Boolean> dispatch) {
+            this.stepKey = stepKey;
+            this.stepMethod = stepMethod;
+            this.dispatch = dispatch;
+        }
+    }
+
+    public DispatchThrottle(LimitCounterStore counterStore, DelayExecutor delayExecutor) {
+        this(counterStore, delayExecutor, DEFAULT_RETRY_INTERVAL_MS);
+    }
+
+    /**
+     * @param retryIntervalMs 等待发送中名额的步骤多久重试一次，用于发现其他节点释放的名额
+     */
+    public DispatchThrottle(LimitCounterStore counterStore, DelayExecutor delayExecutor, long retryIntervalMs) {
+        this(counterStore, delayExecutor, retryIntervalMs, DEFAULT_LEASE_MS);
+    }
+
+    /**
+     * @param leaseMs 发送中名额的租约时长，每三分之一租约续租一次
+     */
+    public DispatchThrottle(LimitCounterStore counterStore, DelayExecutor delayExecutor, long retryIntervalMs, long leaseMs) {
+        Preconditions.checkArgument(retryIntervalMs > 0, "retry interval must > 0");
+        Preconditions.checkArgument(leaseMs > 0, "lease must > 0");
+        this.counterStore = counterStore;
+        this.delayExecutor = delayExecutor;
+        this.retryIntervalMs = retryIntervalMs;
+        this.leaseMs = leaseMs;
+    }
+
+    public void setMethodLimit(String method, int maxInFlight, int maxPerSecond) {
+        methodLimits.put(method, newLimit(maxInFlight, maxPerSecond));
+    }
+
+    public void setJobLimit(String jobId, int maxInFlight, int maxPerSecond) {
+        jobLimits.put(jobId, newLimit(maxInFlight, maxPerSecond));
+    }
+
+    private static Limit newLimit(int maxInFlight, int maxPerSecond) {
+        Preconditions.checkArgument(maxInFlight >= 0 && maxPerSecond >= 0, "limit must >= 0");
+        return new Limit(maxInFlight, maxPerSecond);
+    }
+
+    /**
+     * 没有超过限制时在调用线程发送，否则等有名额时在释放名额的线程或者delayExecutor里发送
+     *
+     * @param dispatch 参数是步骤是否在等待队列里等过
+     * @return 步骤是否进了等待队列
+     */
+    public boolean submit(JobMethod stepMethod, Consumer<Boolean> dispatch) {
+        Waiting step = new Waiting(stepKey(stepMethod.getJobSerialId(), stepMethod.getJobStepId()), stepMethod, dispatch);
+        String blocked = tryAcquire(step, null);
+        if (blocked == null) {
+            dispatch.accept(false);
+            return false;
+        }
+        waiting.put(step.stepKey, step);
+        enqueue(blocked, step);
+        return true;
+    }
+
+    /**
+     * 步骤有结果、失败、被重置或者删除时调用，释放名额并发送等待的步骤；还在等待的步骤不再发送。
+     * 按当前的限制算出名额Key释放，不要求步骤是本节点发送的
+     */
+    public void release(JobMethod stepMethod) {
+        String stepKey = stepKey(stepMethod.getJobSerialId(), stepMethod.getJobStepId());
+        waiting.remove(stepKey);
+        Set<String> keys = limitKeys(stepMethod).stream()
+                .filter(key -> key.endsWith(IN_FLIGHT))
+                .collect(Collectors.toCollection(LinkedHashSet::new));
+        //拿到名额后限制被去掉的也要释放
+        List<String> heldKeys = held.remove(stepKey);
+        if (heldKeys != null) {
+            keys.addAll(heldKeys);
+        }
+        keys.forEach(key -> counterStore.release(key, stepKey));
+        keys.forEach(this::drain);
+    }
+
+    private static String stepKey(String jobSerialId, String stepId) {
+        return jobSerialId + "/" + stepId;
+    }
+
+    /**
+     * 按发送中、每秒发送数的顺序检查，发送中的名额失败时可以还回去
+     *
+     * @param draining 正在处理的等待队列，其他限制有等待的步骤时排在它们后面
+     * @return 挡住的限制Key，拿到所有名额时返回null
+     */
+    private String tryAcquire(Waiting step, String draining) {
+        List<String> keys = limitKeys(step.stepMethod);
+        if (keys.isEmpty()) {
+            return null;
+        }
+        for (String key : keys) {
+            if (!key.equals(draining) && hasWaiting(key)) {
+                return key;
+            }
+        }
+        List<String> acquired = new ArrayList<>(2);
+        for (String key : keys) {
+            boolean rate = key.endsWith(RATE);
+            int limit = limitOf(key, step.stepMethod);
+            if (rate ? !counterStore.tryAcquireInWindow(key, limit, RATE_WINDOW_MS)
+                    : !counterStore.tryAcquire(key, step.stepKey, limit, leaseMs)) {
+                acquired.forEach(acquiredKey -> counterStore.release(acquiredKey, step.stepKey));
+                return key;
+            }
+            if (!rate) {
+                acquired.add(key);
+            }
+        }
+        if (!acquired.isEmpty()) {
+            held.put(step.stepKey, acquired);
+            scheduleRenew();
+        }
+        return null;
+    }
+
+    /**
+     * 有持有的名额时定时续租，没有时停止
+     */
+    private void scheduleRenew() {
+        if (renewScheduled.compareAndSet(false, true)) {
+            delayExecutor.execute(this::renew, Math.max(leaseMs / 3, 1));
+        }
+    }
+
+    private void renew() {
+        held.forEach((stepKey, keys) -> {
+            List<String> renewed = keys.stream().filter(key -> renewLease(key, stepKey)).collect(Collectors.toList());
+            if (renewed.size() < keys.size()) {
+                //租约已经到期或者名额已经被处理结果的节点释放，不再持有，也不再续租
+                held.computeIfPresent(stepKey, (ignored, current) -> current != keys ? current : renewed.isEmpty() ? null : renewed);
+            }
+        });
+        renewScheduled.set(false);
+        //清掉标记后再检查，期间新拿到的名额不会漏掉续租
+        if (!held.isEmpty()) {
+            scheduleRenew();
+        }
+    }
+
+    /**
+     * @return 名额是否还在，续租出错时当作还在，下次再续
+     */
+    private boolean renewLease(String key, String stepKey) {
+        try {
+            if (counterStore.renew(key, stepKey, leaseMs)) {
+                return true;
+            }
+            log.warning(() -> "throttle lease lost: " + key + ", step: " + stepKey);
+            return false;
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, e, () -> "renew throttle lease failed: " + key + ", step: " + stepKey);
+            return true;
+        }
+    }
+
+    private List<String> limitKeys(JobMethod stepMethod) {
+        Limit methodLimit = methodLimits.get(stepMethod.getJobMethod());
+        Limit jobLimit = jobLimits.get(stepMethod.getJobId());
+        if (methodLimit == null && jobLimit == null) {
+            return Collections.emptyList();
+        }
+        List<String> keys = new ArrayList<>(4);
+        String methodKey = "method:" + stepMethod.getJobMethod();
+        String jobKey = "job:" + stepMethod.getJobId();
+        if (methodLimit != null && methodLimit.getMaxInFlight() > 0) {
+            keys.add(methodKey + IN_FLIGHT);
+        }
+        if (jobLimit != null && jobLimit.getMaxInFlight() > 0) {
+            keys.add(jobKey + IN_FLIGHT);
+        }
+        if (methodLimit != null && methodLimit.getMaxPerSecond() > 0) {
+            keys.add(methodKey + RATE);
+        }
+        if (jobLimit != null && jobLimit.getMaxPerSecond() > 0) {
+            keys.add(jobKey + RATE);
+        }
+        return keys;
+    }
+
+    private int limitOf(String key, JobMethod stepMethod) {
+        Limit limit = key.startsWith("method:") ? methodLimits.get(stepMethod.getJobMethod()) : jobLimits.get(stepMethod.getJobId());
+        return key.endsWith(RATE) ? limit.getMaxPerSecond() : limit.getMaxInFlight();
+    }
+
+    private boolean hasWaiting(String key) {
+        Queue<Waiting> queue = queues.get(key);
+        return queue != null && !queue.isEmpty();
+    }
+
+    private void enqueue(String key, Waiting step) {
+        queues.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(step);
+        scheduleDrain(key);
+    }
+
+    private void scheduleDrain(String key) {
+        if (!scheduledDrains.add(key)) {
+            return;
+        }
+        long delay = key.endsWith(RATE)
+                ? RATE_WINDOW_MS - System.currentTimeMillis() % RATE_WINDOW_MS
+                : retryIntervalMs;
+        delayExecutor.execute(() -> {
+            scheduledDrains.remove(key);
+            drain(key);
+        }, delay);
+    }
+
+    /**
+     * 按顺序发送队列里能拿到名额的步骤，被其他限制挡住的转到那个限制的队列，发送在锁外进行
+     */
+    private void drain(String key) {
+        Queue<Waiting> queue = queues.get(key);
+        if (queue == null) {
+            return;
+        }
+        List<Waiting> ready = new ArrayList<>();
+        synchronized (queue) {
+            Waiting head;
+            while ((head = queue.peek()) != null) {
+                if (waiting.get(head.stepKey) != head) {
+                    queue.poll();
+                    continue;
+                }
+                String blocked = tryAcquire(head, key);
+                if (blocked == null) {
+                    queue.poll();
+                    if (waiting.remove(head.stepKey, head)) {
+                        ready.add(head);
+                    } else {
+                        //拿到名额时步骤已经结束
+                        List<String> keys = held.remove(head.stepKey);
+                        if (keys != null) {
+                            for (String heldKey : keys) {
+                                counterStore.release(heldKey, head.stepKey);
+                            }
+                        }
+                    }
+                } else if (blocked.equals(key)) {
+                    scheduleDrain(key);
+                    break;
+                } else {
+                    queue.poll();
+                    enqueue(blocked, head);
+                }
+            }
+        }
+        ready.forEach(step -> {
+            try {
+                step.dispatch.accept(true);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, e, () -> "dispatch waiting step failed: " + step.stepKey);
+            }
+        });
+    }
+
+    /**
+     * 等待发送的步骤数
+     */
+    public int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * 本节点发送中并且持有名额的步骤数
+     */
+    public int getHeld() {
+        return held.size();
+    }
+}
@@ -0,0 +1,22 @@
+package cn.bobdeng.job.domain.job;
+
+/**
+ * 直接使用JobDAO的分布式锁
+ */
+public class DistributedJobLock implements JobLock {
+    private final JobDAO jobDAO;
+
+    public DistributedJobLock(JobDAO jobDAO) {
+        this.jobDAO = jobDAO;
+    }
+
+    @Override
+    public void lock(String jobSerialId) {
+        jobDAO.lock(jobSerialId);
+    }
+
+    @Override
+    public void unlock(String jobSerialId) {
+        jobDAO.releaseLock(jobSerialId);
+    }
+}
@@ -0,0 +1,92 @@
+package cn.bobdeng.job.domain.job;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 计数在本进程内存里，只对本节点生效
+ */
+public class InMemoryLimitCounterStore implements LimitCounterStore {
+    //每个Key的持有者和租约到期时间，在持有Map时读写
+    private final ConcurrentHashMap<String, Map<String, Long>> slots = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Window> windows = new ConcurrentHashMap<>();
+
+    private static class Window {
+        private long start;
+        private int count;
+    }
+
+    @Override
+    public boolean tryAcquire(String key, String holder, int limit, long leaseMs) {
+        Map<String, Long> holders = slots.computeIfAbsent(key, k -> new HashMap<>());
+        long now = System.currentTimeMillis();
+        synchronized (holders) {
+            holders.values().removeIf(expireAt -> expireAt <= now);
+            if (!holders.containsKey(holder) && holders.size() >= limit) {
+                return false;
+            }
+            holders.put(holder, now + leaseMs);
+            return true;
+        }
+    }
+
+    @Override
+    public boolean renew(String key, String holder, long leaseMs) {
+        Map<String, Long> holders = slots.get(key);
+        if (holders == null) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (holders) {
+            Long expireAt = holders.get(holder);
+            if (expireAt == null || expireAt <= now) {
+                holders.remove(holder);
+                return false;
+            }
+            holders.put(holder, now + leaseMs);
+            return true;
+        }
+    }
+
+    @Override
+    public void release(String key, String holder) {
+        Map<String, Long> holders = slots.get(key);
+        if (holders != null) {
+            synchronized (holders) {
+                holders.remove(holder);
+            }
+        }
+    }
+
+    @Override
+    public boolean tryAcquireInWindow(String key, int limit, long windowMs) {
+        Window window = windows.computeIfAbsent(key, k -> new Window());
+        long start = System.currentTimeMillis() / windowMs * windowMs;
+        synchronized (window) {
+            if (window.start != start) {
+                window.start = start;
+                window.count = 0;
+            }
+            if (window.count >= limit) {
+                return false;
+            }
+            window.count++;
+            return true;
+        }
+    }
+
+    /**
+     * 没有过期的名额数
+     */
+    public int getCount(String key) {
+        Map<String, Long> holders = slots.get(key);
+        if (holders == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (holders) {
+            return (int) holders.values().stream().filter(expireAt -> expireAt > now).count();
+        }
+    }
+}
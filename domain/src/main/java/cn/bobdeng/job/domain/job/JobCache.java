@@ -0,0 +1,102 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.shard.JobShardRouter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * 正在执行的JOB缓存，写入时同步更新，读取时和JobDAO里的版本号比较，版本不同就重新读取
+ */
+public class JobCache {
+    public static final long DEFAULT_MAXIMUM_SIZE = 10000;
+    private final JobDAO jobDAO;
+    private final Cache<String, Job> jobs;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder staleMisses = new LongAdder();
+
+    public JobCache(JobDAO jobDAO) {
+        this(jobDAO, DEFAULT_MAXIMUM_SIZE);
+    }
+
+    public JobCache(JobDAO jobDAO, long maximumSize) {
+        this.jobDAO = jobDAO;
+        this.jobs = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    public Job getJob(String jobSerialId) {
+        Job cached = jobs.getIfPresent(jobSerialId);
+        if (cached != null) {
+            if (cached.getVersion() == jobDAO.getJobVersion(jobSerialId)) {
+                hits.increment();
+                return cached;
+            }
+            staleMisses.increment();
+        } else {
+            misses.increment();
+        }
+        Job job = jobDAO.getJob(jobSerialId);
+        if (job != null) {
+            jobs.put(jobSerialId, job);
+        } else {
+            jobs.invalidate(jobSerialId);
+        }
+        return job;
+    }
+
+    /**
+     * JOB已经保存到JobDAO后放入缓存
+     */
+    public void put(Job job) {
+        jobs.put(job.getId(), job);
+    }
+
+    public void evict(String jobSerialId) {
+        jobs.invalidate(jobSerialId);
+    }
+
+    public void evictIf(Predicate<String> jobSerialIdPredicate) {
+        jobs.asMap().keySet().removeIf(jobSerialIdPredicate);
+    }
+
+    /**
+     * 节点变化后清除不再属于本节点的JOB
+     */
+    public void bindTo(JobShardRouter shardRouter) {
+        shardRouter.addRebalanceListener(() -> evictIf(jobSerialId -> !shardRouter.isLocal(jobSerialId)));
+    }
+
+    public long size() {
+        return jobs.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 缓存中没有的次数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 缓存中有但是版本已经过期的次数
+     */
+    public long getStaleMisses() {
+        return staleMisses.sum();
+    }
+
+    public double getHitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum() + staleMisses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+}
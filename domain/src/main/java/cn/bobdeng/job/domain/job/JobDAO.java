@@ -3,9 +3,17 @@ package cn.bobdeng.job.domain.job;
 
 import cn.bobdeng.job.domain.entity.*;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public interface JobDAO {
+    int SUMMARY_PAGE_SIZE = 1000;
+
     /**
      * 获取JOB配置
      * @param jobId
@@ -20,6 +28,22 @@ public interface JobDAO {
      */
     List<JobStepConfig> getJobConfigSteps(String jobId);
 
+    /**
+     * 获取JOB配置的某个版本，JobCodec还原按旧配置创建的JOB时使用。
+     * 默认只能找到当前配置；存储的JOB可能比配置修改活得久时，存储需要按版本保留历史配置并覆盖这个方法
+     * @param jobId
+     * @param configVersion JobTemplate.getConfigVersion
+     * @return 版本不存在时返回null
+     */
+    default JobTemplate getJobTemplate(String jobId, long configVersion) {
+        JobConfig jobConfig = getJobConfig(jobId);
+        if (jobConfig == null) {
+            return null;
+        }
+        JobTemplate template = JobTemplate.of(jobConfig, getJobConfigSteps(jobId));
+        return template.getConfigVersion() == configVersion ? template : null;
+    }
+
     /**
      * 保存当前JOB，包括JOB和Step
      * @param job
@@ -27,23 +51,42 @@ public interface JobDAO {
     void saveJob(Job job);
 
     /**
-     * 用JOB加锁，分布式
+     * 批量保存新JOB，存储支持批量写入时覆盖这个方法
+     * @param jobs
+     */
+    default void saveJobs(List<Job> jobs) {
+        jobs.forEach(this::saveJob);
+    }
+
+    /**
+     * 用JOB加锁，分布式。锁不能和线程绑定：TwoLevelJobLock会把持有的锁交给本节点的其他线程，
+     * 由最后一个线程调用releaseLock
      * @param jobId
      */
     void lock(String jobId);
 
     /**
-     * 用JOB释放锁
+     * 用JOB释放锁，可能不是调用lock的线程
      * @param jobId
      */
     void releaseLock(String jobId);
 
     /**
-     * 保存JOB执行步骤
+     * 保存JOB所有执行步骤。服务只调用saveChangedSteps，这个方法是它的默认实现，
+     * 只需要实现这个方法的存储不用关心哪些步骤有变化
      * @param job
      */
     void saveSteps(Job job);
 
+    /**
+     * 只保存有变化的JOB执行步骤，默认保存所有步骤，存储支持按步骤写入时覆盖这个方法
+     * @param job
+     * @param steps 有变化的步骤
+     */
+    default void saveChangedSteps(Job job, List<JobStep> steps) {
+        saveSteps(job);
+    }
+
     /**
      * 获取JOB
      * @param jobId
@@ -51,6 +94,13 @@ public interface JobDAO {
      */
     Job getJob(String jobId);
 
+    /**
+     * 获取JOB当前保存的版本号，即最后一次保存时Job.version的值
+     * @param jobId
+     * @return JOB不存在时返回-1
+     */
+    long getJobVersion(String jobId);
+
 
     /**
      * 获取所有正在执行的JOB
@@ -58,6 +108,54 @@ public interface JobDAO {
      */
     List<Job> findAll();
 
+    /**
+     * 按JOB序列号顺序分页获取正在执行的JOB，需要按序列号范围读取，只读这一页。
+     * 恢复和摘要查询逐页调用，每页都读取所有JOB时总开销和JOB数的平方成正比
+     * @param afterJobSerialId 上一页最后一个JOB的序列号，为空时从头开始
+     * @param limit
+     * @return 序列号大于afterJobSerialId的前limit个JOB
+     */
+    List<Job> findPage(String afterJobSerialId, int limit);
+
+    /**
+     * 按JOB序列号顺序分页获取正在执行的JOB摘要，存储可以不还原步骤直接读取时覆盖这个方法
+     * @param query 过滤条件
+     * @param afterJobSerialId 上一页最后一个JOB的序列号，为空时从头开始
+     * @param limit
+     * @return 符合条件的前limit个JOB摘要
+     */
+    default List<JobSummary> findSummaryPage(JobSummaryQuery query, String afterJobSerialId, int limit) {
+        List<JobSummary> summaries = new ArrayList<>();
+        String after = afterJobSerialId;
+        List<Job> page;
+        do {
+            page = findPage(after, limit);
+            for (Job job : page) {
+                JobSummary summary = JobSummary.of(job);
+                if (query.matches(summary) && summaries.size() < limit) {
+                    summaries.add(summary);
+                }
+            }
+            after = page.isEmpty() ? null : page.get(page.size() - 1).getId();
+        } while (summaries.size() < limit && page.size() == limit);
+        return summaries;
+    }
+
+    /**
+     * 按JOB序列号顺序逐个读取符合条件的JOB摘要，不一次加载所有JOB
+     * @param query 过滤条件
+     * @param consumer
+     */
+    default void forEachSummary(JobSummaryQuery query, Consumer<JobSummary> consumer) {
+        String after = null;
+        List<JobSummary> page;
+        do {
+            page = findSummaryPage(query, after, SUMMARY_PAGE_SIZE);
+            page.forEach(consumer);
+            after = page.isEmpty() ? null : page.get(page.size() - 1).getId();
+        } while (page.size() == SUMMARY_PAGE_SIZE);
+    }
+
     /**
      * 创建新JOB，不保存
      * @param jobId
@@ -66,6 +164,16 @@ public interface JobDAO {
      */
     Job newJob(String jobId, String params);
 
+    /**
+     * 用同一个配置批量创建新JOB，不保存
+     * @param jobId
+     * @param paramsList
+     * @return 和paramsList顺序一致
+     */
+    default List<Job> newJobs(String jobId, List<String> paramsList) {
+        return paramsList.stream().map(params -> newJob(jobId, params)).collect(Collectors.toList());
+    }
+
     /**
      * 根据ID删除JOB
      * @param jobId
@@ -98,4 +206,29 @@ public interface JobDAO {
      * @return
      */
     String getKey(String key);
+
+    /**
+     * 批量放入Key，有过期时间
+     * @param keyValues
+     * @param expireInMs
+     */
+    default void putKeys(Map<String, String> keyValues, int expireInMs) {
+        keyValues.forEach((key, value) -> putKey(key, value, expireInMs));
+    }
+
+    /**
+     * 批量获取Key的Value
+     * @param keys
+     * @return 只包含存在的Key
+     */
+    default Map<String, String> getKeys(Collection<String> keys) {
+        Map<String, String> values = new HashMap<>();
+        keys.forEach(key -> {
+            String value = getKey(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        });
+        return values;
+    }
 }
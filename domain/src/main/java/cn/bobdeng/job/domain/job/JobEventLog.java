@@ -0,0 +1,78 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.entity.JobStep;
+import cn.bobdeng.job.domain.entity.JobSummary;
+import com.google.common.base.Preconditions;
+import lombok.extern.java.Log;
+
+import java.util.logging.Level;
+
+/**
+ * JOB生命周期事件日志，格式：event=名称 key=value ...，先判断级别再拼接，关闭时不分配对象。
+ * 发送和JOB推进是FINE，JOB结束是INFO；JOB只输出摘要，打开采样后命中的JOB在FINE事件里附带完整内容
+ */
+@Log
+public class JobEventLog {
+    //为0时不输出完整的JOB
+    private final int sampleEvery;
+
+    public JobEventLog() {
+        this(0);
+    }
+
+    /**
+     * @param sampleEvery 每多少个JOB输出一个完整内容，按JOB序列号选择，同一个JOB的事件都会输出
+     */
+    public JobEventLog(int sampleEvery) {
+        Preconditions.checkArgument(sampleEvery >= 0, "sample every must >= 0");
+        this.sampleEvery = sampleEvery;
+    }
+
+    public void jobNext(Job job) {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(event("job_next", job).toString());
+        }
+    }
+
+    public void stepDispatched(Job job, JobStep step, long delay) {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(event("step_dispatched", job)
+                    .append(" step=").append(step.getStepId())
+                    .append(" method=").append(step.getMethodName())
+                    .append(" try=").append(step.getTryTimes())
+                    .append(" delay=").append(delay)
+                    .toString());
+        }
+    }
+
+    public void jobExecuting(Job job) {
+        if (log.isLoggable(Level.FINE)) {
+            log.fine(event("job_executing", job).append(" executing=").append(job.getExecutingStepCount()).toString());
+        }
+    }
+
+    public void jobOver(Job job) {
+        if (log.isLoggable(Level.INFO)) {
+            log.info(new StringBuilder("event=job_over serial=").append(job.getId())
+                    .append(" success=").append(job.isJobSuccessOver())
+                    .append(" summary=").append(JobSummary.of(job))
+                    .toString());
+        }
+    }
+
+    private StringBuilder event(String name, Job job) {
+        StringBuilder builder = new StringBuilder(128)
+                .append("event=").append(name)
+                .append(" serial=").append(job.getId())
+                .append(" job=").append(job.getJobId());
+        if (isSampled(job)) {
+            builder.append(" detail=").append(job);
+        }
+        return builder;
+    }
+
+    private boolean isSampled(Job job) {
+        return sampleEvery > 0 && job.getId() != null && Math.floorMod(job.getId().hashCode(), sampleEvery) == 0;
+    }
+}
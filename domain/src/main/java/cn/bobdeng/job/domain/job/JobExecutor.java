@@ -0,0 +1,201 @@
+package cn.bobdeng.job.domain.job;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.java.Log;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * 控制器处理命令的线程模型，配置时选择：
+ * POOLED使用有界线程池和有界队列，队列满了由调用线程执行，压力传回调用方；
+ * VIRTUAL每个任务一个虚拟线程，拿到信号量的名额才创建线程，没有名额时和POOLED一样由调用线程执行，
+ * 运行环境不支持虚拟线程时退回POOLED。
+ */
+@Log
+public class JobExecutor {
+    public enum Mode {
+        POOLED, VIRTUAL
+    }
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+    private final ExecutorService executorService;
+    private final boolean virtual;
+    private final int maxConcurrency;
+    //只有VIRTUAL模式使用
+    private final Semaphore permits;
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder callerRuns;
+    private final LongAdder dropped;
+
+    private JobExecutor(ExecutorService executorService, boolean virtual, int maxConcurrency, LongAdder callerRuns, LongAdder dropped) {
+        this.executorService = executorService;
+        this.callerRuns = callerRuns;
+        this.dropped = dropped;
+        this.virtual = virtual;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = virtual ? new Semaphore(maxConcurrency) : null;
+    }
+
+    public static JobExecutor of(Mode mode, int maxConcurrency) {
+        return mode == Mode.VIRTUAL ? virtual(maxConcurrency) : pooled(maxConcurrency, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public static JobExecutor pooled(int threads, int queueCapacity) {
+        Preconditions.checkArgument(threads > 0, "threads must > 0");
+        Preconditions.checkArgument(queueCapacity > 0, "queue capacity must > 0");
+        AtomicInteger threadCount = new AtomicInteger();
+        LongAdder callerRuns = new LongAdder();
+        LongAdder dropped = new LongAdder();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "job-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    if (executor.isShutdown()) {
+                        dropped.increment();
+                        throw new RejectedExecutionException("job executor shut down");
+                    }
+                    callerRuns.increment();
+                    runnable.run();
+                });
+        return new JobExecutor(pool, false, threads, callerRuns, dropped);
+    }
+
+    /**
+     * 运行环境支持时每个任务一个虚拟线程，否则使用有界线程池
+     */
+    public static JobExecutor virtual(int maxConcurrency) {
+        Preconditions.checkArgument(maxConcurrency > 0, "max concurrency must > 0");
+        ExecutorService executorService = newVirtualThreadPerTaskExecutor();
+        if (executorService == null) {
+            log.info("virtual threads not supported, use pooled executor");
+            return pooled(maxConcurrency, DEFAULT_QUEUE_CAPACITY);
+        }
+        return new JobExecutor(executorService, true, maxConcurrency, new LongAdder(), new LongAdder());
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException 已经shutdown，任务没有执行，计入getDropped()
+     */
+    public void execute(Runnable task) {
+        submitted.increment();
+        if (permits != null && executorService.isShutdown()) {
+            dropped.increment();
+            throw new RejectedExecutionException("job executor shut down");
+        }
+        if (permits == null) {
+            executorService.execute(() -> run(task));
+            return;
+        }
+        if (!permits.tryAcquire()) {
+            callerRuns.increment();
+            run(task);
+            return;
+        }
+        try {
+            executorService.execute(() -> {
+                try {
+                    run(task);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            dropped.increment();
+            throw e;
+        }
+    }
+
+    private void run(Runnable task) {
+        started.increment();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            failed.increment();
+            log.log(Level.WARNING, "job task failed", e);
+        } finally {
+            completed.increment();
+        }
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * 已经提交还没有开始执行的任务数
+     */
+    public long getQueueDepth() {
+        return submitted.sum() - started.sum() - dropped.sum();
+    }
+
+    public long getActiveCount() {
+        return started.sum() - completed.sum();
+    }
+
+    /**
+     * 正在执行的任务数占并发上限的比例，达到1表示已经饱和
+     */
+    public double getSaturation() {
+        return Math.min((double) getActiveCount() / maxConcurrency, 1);
+    }
+
+    /**
+     * 线程池队列满了或者虚拟线程名额用完时由调用线程执行的次数
+     */
+    public long getCallerRuns() {
+        return callerRuns.sum();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    /**
+     * shutdown后提交、没有执行的任务数
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * 抛出异常的任务数，提交任务的调用方已经返回，只能从这里和日志发现
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public void shutdown() {
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,10 @@
+package cn.bobdeng.job.domain.job;
+
+/**
+ * JOB锁，同一个JOB的结果和调度串行处理
+ */
+public interface JobLock {
+    void lock(String jobSerialId);
+
+    void unlock(String jobSerialId);
+}
@@ -2,17 +2,66 @@ package cn.bobdeng.job.domain.job;
 
 import cn.bobdeng.job.domain.entity.*;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface JobService {
     void startJob(String jobId, String params);
 
+    /**
+     * 用同一个配置批量启动JOB，配置只解析一次，重复检查和保存都批量进行
+     * @param jobId
+     * @param paramsList
+     * @return 每个参数的启动结果，和paramsList顺序一致
+     */
+    List<JobStartResult> startJobs(String jobId, List<String> paramsList);
+
     void onJobResult(JobResult jobResult);
 
+    /**
+     * 批量处理步骤结果，同一个JOB的结果只加锁和保存一次，最后执行一次下一步
+     * @param jobResults
+     */
+    void onJobResults(Collection<JobResult> jobResults);
+
+    /**
+     * 处理其他节点转发过来的步骤结果，直接在本节点处理，不再转发
+     * @param jobResults
+     */
+    void onForwardedJobResults(Collection<JobResult> jobResults);
+
     void retryJob(String jobId, String stepId);
 
+    /**
+     * 节点重启后调用，根据保存的发送时间重新加入还没有发送的延迟步骤，已经到期的立即发送。
+     * 步骤发送前要在JOB锁里认领，已经认领过的不再发送，只按剩下的超时时间重新检查超时，没有配置超时的等结果或者手动重试。
+     * 配置了分片时只恢复属于本节点的JOB；没有分片时多个节点都可以恢复，同一次尝试只有认领到的节点发送
+     */
+    void recoverDelayedSteps();
+
     List<Job> getExecutingJob();
 
+    /**
+     * 按JOB序列号顺序分页获取正在执行的JOB
+     * @param afterJobSerialId 上一页最后一个JOB的序列号，为空时从头开始
+     * @param limit 每页数量
+     */
+    List<Job> getExecutingJob(String afterJobSerialId, int limit);
+
+    /**
+     * 按JOB序列号顺序分页获取正在执行的JOB摘要，不包含步骤列表
+     * @param query 过滤条件
+     * @param afterJobSerialId 上一页最后一个JOB的序列号，为空时从头开始
+     * @param limit 每页数量
+     */
+    List<JobSummary> getExecutingJobSummaries(JobSummaryQuery query, String afterJobSerialId, int limit);
+
+    /**
+     * 逐个读取正在执行的JOB摘要，不一次加载所有JOB
+     */
+    void forEachExecutingJobSummary(JobSummaryQuery query, Consumer<JobSummary> consumer);
+
     List<JobStep> getExecutingJobSteps(String jobId);
 
     void executeStepByHttp(String jobId, String stepId, String host);
@@ -2,15 +2,34 @@ package cn.bobdeng.job.domain.job;
 
 import cn.bobdeng.job.domain.*;
 import cn.bobdeng.job.domain.entity.*;
-import cn.bobdeng.job.domain.interceptor.InterceptorDAO;
+import cn.bobdeng.job.domain.interceptor.InterceptorService;
+import cn.bobdeng.job.domain.metrics.JobMetrics;
+import cn.bobdeng.job.domain.metrics.NoopJobMetrics;
+import cn.bobdeng.job.domain.shard.JobResultForwarder;
+import cn.bobdeng.job.domain.shard.JobShardRouter;
 import com.google.common.base.Strings;
-import com.google.common.hash.Hashing;
+import com.google.common.collect.Lists;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.Getter;
 import lombok.extern.java.Log;
 
-import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
 
 
 @Log
@@ -18,58 +37,231 @@ import java.util.Optional;
 public class JobServiceImpl implements JobService {
     public static final int JOB_HASH_EXPIRE_IN_MS = 60000;
     public static final String OK = "OK";
+    public static final int DEFAULT_BULK_BATCH_SIZE = 500;
+    public static final int DEFAULT_RECOVER_PAGE_SIZE = 1000;
+    public static final int DEFAULT_RECORD_THREADS = 4;
     private JobDAO jobDAO;
     private StepInvoker stepInvoker;
-    private InterceptorDAO interceptorDAO;
+    private InterceptorService interceptorService;
     private DelayExecutor delayExecutor;
+    //为空时直接使用JobDAO的分布式锁
+    private JobLock jobLock;
+    //为空时不分片，所有结果在本节点处理
+    private JobShardRouter shardRouter;
+    private JobResultForwarder resultForwarder;
+    //为空时不缓存，每次从JobDAO读取
+    private JobCache jobCache;
+    //为空时不限制每个方法和每个JOB发送中的步骤数和发送速度
+    private DispatchThrottle dispatchThrottle;
+    //为空时在调用线程发送，不按优先级排序
+    private PriorityDispatcher priorityDispatcher;
+    //延迟到期的步骤在这里加锁认领，排过队的步骤发送后在这里写入实际的发送时间，不占用定时器和发送线程；为空时使用所有服务共用的线程池
+    private Executor dispatchRecordExecutor;
+    //重复检查的Key，默认兼容原来的MD5
+    private RepeatHashMode repeatHashMode = RepeatHashMode.MD5;
+    //为空时每次都查询JobDAO；只有本节点是唯一写入重复Key的节点时才能配置
+    private RepeatKeyFilter repeatKeyFilter;
+    //批量启动时每批检查重复和保存的JOB数
+    private int bulkBatchSize = DEFAULT_BULK_BATCH_SIZE;
+    //恢复延迟步骤时每页读取的JOB数
+    private int recoverPageSize = DEFAULT_RECOVER_PAGE_SIZE;
+    //默认不记录；DAO的耗时用MeteredJobDAO包装jobDAO记录
+    private JobMetrics jobMetrics = NoopJobMetrics.INSTANCE;
+    //需要输出完整JOB排查问题时设置带采样的JobEventLog
+    private JobEventLog jobEventLog = new JobEventLog();
+    //本节点等待超时的步骤，每次发送一个新的标记，步骤有结果后移除，超时触发时不用再加锁读取JOB
+    @Getter(AccessLevel.NONE)
+    private final ConcurrentHashMap<String, Object> pendingTimeouts = new ConcurrentHashMap<>();
 
     public static final String HTTP_PREFIX = "http://";
 
     @Override
     public void startJob(String jobId, String params) {
         Job job = jobDAO.newJob(jobId, params);
-        if (isRepeatJob(getJobRepeatHash(job))) {
+        List<String> repeatKeys = getJobRepeatKeys(job);
+        if (isRepeatJob(repeatKeys)) {
             log.warning(() -> "repeat job:" + jobId + "," + params);
             return;
         }
         //加锁的原因是有结果太快回来导致问题
-        lockJob(job.getId(), () -> {
-            jobDAO.saveJob(job);
-            jobDAO.putKey(getJobRepeatHash(job), OK, JOB_HASH_EXPIRE_IN_MS);
+        lockJob(job.getId(), work -> {
+            work.jobChanged(job);
+            jobMetrics.jobStarted();
+            repeatKeys.forEach(key -> {
+                jobDAO.putKey(key, OK, JOB_HASH_EXPIRE_IN_MS);
+                putRepeatKeyFilter(key);
+            });
             try {
-                doNext(job);
+                doNext(job, work);
             } catch (Exception e) {
-                e.printStackTrace();
+                log.log(Level.WARNING, e, () -> "start job failed, job serial: " + job.getId());
             }
         });
     }
 
-    private boolean isRepeatJob(String hash) {
-        return jobDAO.getKey(hash) != null;
+    @Override
+    public List<JobStartResult> startJobs(String jobId, List<String> paramsList) {
+        List<Job> jobs = jobDAO.newJobs(jobId, paramsList);
+        List<JobStartResult> results = new ArrayList<>(jobs.size());
+        Set<String> acceptedHashes = new HashSet<>();
+        for (List<Job> batch : Lists.partition(jobs, bulkBatchSize)) {
+            startBatch(batch, results, acceptedHashes);
+        }
+        return results;
     }
 
-    private String getJobRepeatHash(Job job) {
-        return Hashing.md5().hashString(job.getJobId() + job.getParams(), Charset.forName("utf-8")).toString();
+    /**
+     * 一批JOB批量检查重复、准备第一批步骤后批量保存，保存后才发送，所以不需要给每个JOB加锁
+     */
+    private void startBatch(List<Job> batch, List<JobStartResult> results, Set<String> acceptedHashes) {
+        List<List<String>> keysList = batch.stream().map(this::getJobRepeatKeys).collect(Collectors.toList());
+        Set<String> mightExist = keysList.stream()
+                .filter(this::mightBeRepeat)
+                .flatMap(List::stream)
+                .collect(Collectors.toSet());
+        Map<String, String> existing = mightExist.isEmpty() ? Collections.emptyMap() : jobDAO.getKeys(mightExist);
+        if (repeatKeyFilter != null && repeatKeyFilter.isWarm()) {
+            keysList.stream()
+                    .filter(keys -> mightExist.containsAll(keys) && keys.stream().noneMatch(existing::containsKey))
+                    .forEach(keys -> repeatKeyFilter.recordFalsePositive());
+        }
+        List<Job> accepted = new ArrayList<>();
+        List<JobUnitOfWork> works = new ArrayList<>();
+        Map<String, String> newKeys = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            Job job = batch.get(i);
+            List<String> keys = keysList.get(i);
+            int index = results.size();
+            //同一次批量里参数相同的也算重复
+            if (keys.stream().anyMatch(existing::containsKey) || !acceptedHashes.add(keys.get(0))) {
+                log.warning(() -> "repeat job:" + job.getJobId() + ", index: " + index);
+                results.add(JobStartResult.builder().index(index).status(JobStartResult.Status.DUPLICATE).build());
+                continue;
+            }
+            JobUnitOfWork work = new JobUnitOfWork(jobDAO);
+            work.jobChanged(job);
+            doNext(job, work);
+            jobMetrics.jobStarted();
+            //启动时就已经成功结束的JOB不用保存
+            if (!work.isJobDeleted()) {
+                accepted.add(job);
+            }
+            work.savedByCaller();
+            works.add(work);
+            keys.forEach(key -> newKeys.put(key, OK));
+            results.add(JobStartResult.builder().index(index).jobSerialId(job.getId()).status(JobStartResult.Status.ACCEPTED).build());
+        }
+        if (works.isEmpty()) {
+            return;
+        }
+        if (!accepted.isEmpty()) {
+            jobDAO.saveJobs(accepted);
+        }
+        jobDAO.putKeys(newKeys, JOB_HASH_EXPIRE_IN_MS);
+        newKeys.keySet().forEach(this::putRepeatKeyFilter);
+        works.forEach(work -> {
+            updateCache(work.getJob(), true);
+            work.runAfterUnlock();
+        });
+    }
+
+    private boolean isRepeatJob(List<String> repeatKeys) {
+        if (!mightBeRepeat(repeatKeys)) {
+            return false;
+        }
+        boolean repeat = repeatKeys.size() == 1
+                ? jobDAO.getKey(repeatKeys.get(0)) != null
+                : !jobDAO.getKeys(repeatKeys).isEmpty();
+        if (!repeat && repeatKeyFilter != null && repeatKeyFilter.isWarm()) {
+            repeatKeyFilter.recordFalsePositive();
+        }
+        return repeat;
     }
 
+    /**
+     * 本地过滤器确定没有时不用查询JobDAO
+     */
+    private boolean mightBeRepeat(List<String> repeatKeys) {
+        return repeatKeyFilter == null || repeatKeyFilter.mightContainAny(repeatKeys);
+    }
+
+    private void putRepeatKeyFilter(String key) {
+        if (repeatKeyFilter != null) {
+            repeatKeyFilter.put(key);
+        }
+    }
 
-    private void lockJob(String jobId, Runnable runnable) {
-        jobDAO.lock(jobId);
+    private List<String> getJobRepeatKeys(Job job) {
+        return repeatHashMode.keysOf(job.getJobId(), job.getParams());
+    }
+
+
+    /**
+     * 加锁执行，期间对JOB的修改记录在JobUnitOfWork里，解锁前一次写入，解锁后再发送步骤。
+     * action抛出异常时已经做的修改也会写入，写入成功就发送，否则保存为执行中的步骤不会再发送
+     */
+    private void lockJob(String jobId, Consumer<JobUnitOfWork> action) {
+        JobLock lock = jobLock();
+        JobUnitOfWork work = new JobUnitOfWork(jobDAO);
+        long start = System.nanoTime();
+        lock.lock(jobId);
+        long locked = System.nanoTime();
+        jobMetrics.record(JobMetrics.Timer.LOCK_WAIT, locked - start);
+        boolean written = false;
         try {
-            runnable.run();
+            try {
+                action.accept(work);
+            } finally {
+                try {
+                    work.flush();
+                    written = true;
+                } finally {
+                    updateCache(work.getJob(), written);
+                }
+            }
         } finally {
-            jobDAO.releaseLock(jobId);
+            jobMetrics.record(JobMetrics.Timer.LOCK_HOLD, System.nanoTime() - locked);
+            lock.unlock(jobId);
+            if (written) {
+                work.runAfterUnlock();
+            }
+        }
+    }
+
+    private Job loadJob(String jobSerialId) {
+        return jobCache == null ? jobDAO.getJob(jobSerialId) : jobCache.getJob(jobSerialId);
+    }
+
+    /**
+     * 写入成功后更新缓存，失败或者JOB已经结束时清除
+     */
+    private void updateCache(Job job, boolean written) {
+        if (jobCache == null || job == null) {
+            return;
+        }
+        if (written && !job.isOver()) {
+            jobCache.put(job);
+        } else {
+            jobCache.evict(job.getId());
+        }
+    }
+
+    private JobLock jobLock() {
+        if (jobLock == null) {
+            jobLock = new DistributedJobLock(jobDAO);
         }
+        return jobLock;
     }
 
-    private void doNext(Job job) {
-        log.info(() -> "job doNext," + job);
+    private void doNext(Job job, JobUnitOfWork work) {
+        jobEventLog.jobNext(job);
         //得到已经完成的步骤
         if (job.isOver()) {
-            onJobOver(job);
+            jobMetrics.jobFinished();
+            onJobOver(job, work);
         } else {
             job.runNextSteps(jobStep -> {
-                sendJob(jobStep, job);
+                sendJob(jobStep, job, work);
             });
         }
     }
@@ -79,96 +271,446 @@ public class JobServiceImpl implements JobService {
      *
      * @param step
      */
-    private void sendJob(JobStep step, Job job) {
-        Optional<StepInterceptor> interceptor = getInterceptor(job, step);
-        if (interceptor.isPresent()) {
-            if (!Strings.isNullOrEmpty(interceptor.get().getArbitraryServer())) {
-                executeStepByHttp(job.getId(), step.getStepId(), interceptor.get().getArbitraryServer());
+    private void sendJob(JobStep step, Job job, JobUnitOfWork work) {
+        StepInterceptor interceptor = interceptorService.getStepInterceptor(job.getJobId(), step.getStepId());
+        if (interceptor != null) {
+            if (!Strings.isNullOrEmpty(interceptor.getArbitraryServer())) {
+                //新JOB解锁前还没有保存，用内存里的JOB生成调用参数
+                JobMethod jobMethod = job.getStepMethod(step.getStepId());
+                String host = interceptor.getArbitraryServer();
+                work.afterUnlock(() -> invokeViaHttp(host, jobMethod));
             }
         } else {
             if (step.isExecuting()) return;
             JobMethod stepMethod = job.getStepMethod(step.getStepId());
             job.updateStepRuning(step);
-            jobDAO.saveSteps(job);
             long delayTime = job.getDelayTime(step);
+            int tryTimes = step.getTryTimes();
+            //马上发送的步骤和执行状态一起写入认领，延迟的步骤到时间后再认领
+            step.setDispatchTime(System.currentTimeMillis() + delayTime).setSent(delayTime == 0);
+            work.stepChanged(job, step);
+            jobMetrics.stepDispatched();
+            if (tryTimes > 1) {
+                jobMetrics.retry(step.getMethodName());
+            }
+            //没有前置步骤的第一次发送记录排队时间
+            long queuedAt = tryTimes == 1 && (step.getPreJobs() == null || step.getPreJobs().isEmpty()) ? job.getBeginTime() : 0;
+            int priority = job.getPriority();
+            long beginTime = job.getBeginTime();
+            int timeout = step.getTimeout();
+            jobEventLog.stepDispatched(job, step, delayTime);
+            //写入成功后才发送，批量启动时JOB保存前不会发送也不会超时
             if (delayTime == 0) {
-                log.info("sendJob with: step = [" + step.getJobSerial() + "], jobExecuting = [" + job.getName() + "]");
-                stepInvoker.invoke(stepMethod);
+                work.afterUnlock(() -> submitDispatch(stepMethod, tryTimes, timeout, priority, beginTime, queuedAt));
             } else {
-                log.info("delay sendJob with: step = [" + step.getJobSerial() + "], jobExecuting = [" + job.getName() + "], delay = [" + delayTime + "]");
-                delayExecutor.execute(() -> stepInvoker.invoke(stepMethod), delayTime);
+                work.afterUnlock(() -> delayExecutor.execute(() -> claimAndDispatch(stepMethod, tryTimes, timeout, priority, beginTime, queuedAt), delayTime));
+            }
+        }
+    }
+
+    /**
+     * 延迟到期或者恢复的步骤在dispatchRecordExecutor里加锁认领，认领到的才发送，多个节点恢复同一个JOB时只发送一次
+     */
+    private void claimAndDispatch(JobMethod stepMethod, int tryTimes, int timeout, int priority, long beginTime, long queuedAt) {
+        dispatchRecordExecutor().execute(() -> {
+            if (claimStep(stepMethod, tryTimes)) {
+                submitDispatch(stepMethod, tryTimes, timeout, priority, beginTime, queuedAt);
+            }
+        });
+    }
+
+    /**
+     * 步骤还在执行同一次尝试并且没有被认领时标记为已发送，发送时间改成认领时间
+     *
+     * @return 是否认领到
+     */
+    private boolean claimStep(JobMethod stepMethod, int tryTimes) {
+        AtomicBoolean claimed = new AtomicBoolean();
+        lockJob(stepMethod.getJobSerialId(), work -> {
+            Job job = loadJob(stepMethod.getJobSerialId());
+            JobStep step = job == null ? null : job.findJobStep(stepMethod.getJobStepId());
+            if (step != null && step.isExecuting() && step.getTryTimes() == tryTimes && !step.isSent()) {
+                step.setSent(true).setDispatchTime(System.currentTimeMillis());
+                work.stepChanged(job, step);
+                claimed.set(true);
+            }
+        });
+        return claimed.get();
+    }
+
+    /**
+     * 配置了限流时超过限制的步骤先等待，有名额后再发送；配置了PriorityDispatcher时按优先级排队发送
+     */
+    private void submitDispatch(JobMethod stepMethod, int tryTimes, int timeout, int priority, long beginTime, long queuedAt) {
+        Consumer<Boolean> dispatch = queued -> dispatch(stepMethod, tryTimes, timeout, queuedAt, queued);
+        Consumer<Boolean> send = priorityDispatcher == null
+                ? dispatch
+                : throttled -> priorityDispatcher.submit(priority, beginTime, stepMethod, queued -> dispatch.accept(throttled || queued));
+        if (dispatchThrottle == null) {
+            send.accept(false);
+        } else {
+            dispatchThrottle.submit(stepMethod, send);
+        }
+    }
+
+    /**
+     * 步骤结束后释放限流和优先级发送的名额，解锁后再释放，等待的步骤不在JOB锁里发送
+     */
+    private void releaseThrottle(JobUnitOfWork work, Job job, String stepId) {
+        String jobSerialId = job.getId();
+        if (dispatchThrottle != null) {
+            JobMethod stepMethod = job.getStepMethod(stepId);
+            work.afterUnlock(() -> dispatchThrottle.release(stepMethod));
+        }
+        if (priorityDispatcher != null) {
+            work.afterUnlock(() -> priorityDispatcher.release(jobSerialId, stepId));
+        }
+    }
+
+    /**
+     * 不持有JOB锁时发送，发送失败按步骤失败处理。超时从这里开始计算，在限流或者优先级队列里等待的时间不算
+     *
+     * @param queuedAt JOB的开始时间（毫秒），大于0时记录排队时间
+     * @param queued   是否在限流或者优先级队列里排过队，排过队的步骤改成实际的发送时间
+     */
+    private void dispatch(JobMethod stepMethod, int tryTimes, int timeout, long queuedAt, boolean queued) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        if (queuedAt > 0) {
+            jobMetrics.record(JobMetrics.Timer.QUEUE, TimeUnit.MILLISECONDS.toNanos(now - queuedAt));
+        }
+        if (queued) {
+            dispatchRecordExecutor().execute(() -> updateDispatchTime(stepMethod, tryTimes, now));
+        }
+        if (timeout > 0) {
+            watchTimeout(stepMethod, tryTimes, timeout);
+        }
+        CompletableFuture<Void> future;
+        try {
+            future = stepInvoker.invokeAsync(stepMethod);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((ignored, e) -> {
+            jobMetrics.record(JobMetrics.Timer.DISPATCH, System.nanoTime() - start);
+            if (e != null) {
+                log.log(Level.WARNING, e, () -> "dispatch failed, job serial: " + stepMethod.getJobSerialId() + ", step: " + stepMethod.getJobStepId());
+                failStep(stepMethod.getJobSerialId(), stepMethod.getJobStepId(), tryTimes, "dispatch failed");
+            }
+        });
+    }
+
+    private Executor dispatchRecordExecutor() {
+        return dispatchRecordExecutor == null ? DefaultRecordExecutor.EXECUTOR : dispatchRecordExecutor;
+    }
+
+    /**
+     * 第一次用到时才创建线程池，队列满了由调用线程写入
+     */
+    private static class DefaultRecordExecutor {
+        private static final Executor EXECUTOR = JobExecutor.pooled(DEFAULT_RECORD_THREADS, JobExecutor.DEFAULT_QUEUE_CAPACITY)::execute;
+    }
+
+    /**
+     * 步骤还在执行同一次尝试时记录实际的发送时间，STEP_DURATION不包括排队时间
+     */
+    private void updateDispatchTime(JobMethod stepMethod, int tryTimes, long dispatchTime) {
+        lockJob(stepMethod.getJobSerialId(), work -> {
+            Job job = loadJob(stepMethod.getJobSerialId());
+            JobStep step = job == null ? null : job.findJobStep(stepMethod.getJobStepId());
+            if (step != null && step.isExecuting() && step.getTryTimes() == tryTimes) {
+                step.setDispatchTime(dispatchTime);
+                work.stepChanged(job, step);
+            }
+        });
+    }
+
+    /**
+     * 从发送时间开始计算超时，超时后按失败结果处理，走正常的重试逻辑
+     *
+     * @param timeout 还要等待的时间，恢复时是剩下的超时时间
+     */
+    private void watchTimeout(JobMethod stepMethod, int tryTimes, long timeout) {
+        String jobSerialId = stepMethod.getJobSerialId();
+        String stepId = stepMethod.getJobStepId();
+        String key = timeoutKey(jobSerialId, stepId);
+        Object token = new Object();
+        pendingTimeouts.put(key, token);
+        delayExecutor.execute(() -> {
+            if (pendingTimeouts.remove(key, token)) {
+                failStep(jobSerialId, stepId, tryTimes, "timeout");
             }
+        }, timeout);
+    }
+
+    /**
+     * 步骤这次尝试结束后取消超时，写入成功后再取消，写入失败时超时检查照常进行。
+     * 在重新发送前调用，只取消这次尝试的超时
+     */
+    private void cancelTimeout(JobUnitOfWork work, String jobSerialId, JobStep step) {
+        String key = timeoutKey(jobSerialId, step.getStepId());
+        Object token = pendingTimeouts.get(key);
+        if (token != null) {
+            work.afterUnlock(() -> pendingTimeouts.remove(key, token));
         }
     }
 
-    private Optional<StepInterceptor> getInterceptor(Job job, JobStep step) {
-        return interceptorDAO.getStepInterceptors()
-                .stream()
-                .filter(stepInterceptor -> stepInterceptor.getJobId().equals(job.getJobId()))
-                .filter(stepInterceptor -> stepInterceptor.getJobStepId().equals(step.getStepId()))
-                .findAny();
+    private static String timeoutKey(String jobSerialId, String stepId) {
+        return jobSerialId + "/" + stepId;
+    }
+
+    /**
+     * 步骤还在执行同一次尝试时按失败结果处理
+     */
+    private void failStep(String jobSerialId, String stepId, int tryTimes, String reason) {
+        lockJob(jobSerialId, work -> {
+            Job job = loadJob(jobSerialId);
+            JobStep step = job == null ? null : job.findJobStep(stepId);
+            if (step == null) {
+                return;
+            }
+            //已经有结果或者已经重新发送的不再处理
+            if (!step.isExecuting() || step.getTryTimes() != tryTimes) {
+                return;
+            }
+            log.warning(() -> "step failed: " + reason + ", job serial: " + jobSerialId + ", step: " + stepId + ", try times: " + tryTimes);
+            applyJobResults(job, work, Collections.singletonList(JobResult.builder()
+                    .jobSerialId(jobSerialId)
+                    .jobId(job.getJobId())
+                    .jobStepId(stepId)
+                    .jobMethod(step.getMethodName())
+                    .success(false)
+                    .build()));
+        });
     }
 
     @Override
     public void onJobResult(JobResult jobResult) {
-        lockJob(jobResult.getJobSerialId(), () -> {
-            Job job = jobDAO.getJob(jobResult.getJobSerialId());
-            job.updateStepResult(jobResult);
-            jobDAO.saveSteps(job);
+        onJobResults(Collections.singletonList(jobResult));
+    }
+
+    @Override
+    public void onJobResults(Collection<JobResult> jobResults) {
+        groupBySerialId(jobResults).forEach((jobSerialId, results) -> {
+            if (!forwardToOwner(jobSerialId, results)) {
+                onJobResults(jobSerialId, results);
+            }
+        });
+    }
+
+    @Override
+    public void onForwardedJobResults(Collection<JobResult> jobResults) {
+        groupBySerialId(jobResults).forEach(this::onJobResults);
+    }
+
+    private Map<String, List<JobResult>> groupBySerialId(Collection<JobResult> jobResults) {
+        return jobResults.stream()
+                .collect(Collectors.groupingBy(JobResult::getJobSerialId, LinkedHashMap::new, Collectors.toList()));
+    }
+
+    /**
+     * JOB属于其他节点时转发过去，转发失败由本节点接管处理
+     *
+     * @return 是否已经转发
+     */
+    private boolean forwardToOwner(String jobSerialId, List<JobResult> jobResults) {
+        if (shardRouter == null || shardRouter.isLocal(jobSerialId)) {
+            return false;
+        }
+        String owner = shardRouter.ownerOf(jobSerialId);
+        try {
+            if (resultForwarder.forward(owner, jobResults)) {
+                return true;
+            }
+        } catch (RuntimeException e) {
+            log.log(Level.WARNING, e, () -> "forward job result failed, owner: " + owner + ", job serial: " + jobSerialId);
+        }
+        return false;
+    }
+
+    /**
+     * 同一个JOB的结果按顺序更新，只加锁、读取、保存一次，最后统一判断下一步
+     */
+    private void onJobResults(String jobSerialId, List<JobResult> jobResults) {
+        lockJob(jobSerialId, work -> applyJobResults(loadJob(jobSerialId), work, jobResults));
+    }
+
+    private void applyJobResults(Job job, JobUnitOfWork work, List<JobResult> jobResults) {
+        String output = null;
+        long now = System.currentTimeMillis();
+        boolean stepFinished = false;
+        for (JobResult jobResult : jobResults) {
+            JobStep step = job.findJobStep(jobResult.getJobStepId());
+            if (recordStepFinished(step, now)) {
+                stepFinished = true;
+                releaseThrottle(work, job, jobResult.getJobStepId());
+                cancelTimeout(work, job.getId(), step);
+            }
+            work.stepChanged(job, job.updateStepResult(jobResult));
             if (!Strings.isNullOrEmpty(jobResult.getOutput())) {
-                job.setParams(jobResult.getOutput());
-                jobDAO.saveJob(job);
+                output = jobResult.getOutput();
             }
-            if (job.isOver()) {
-                log.info("job over id : " + job.getId() + ", job steps: " + job);
-                onJobOver(job);
+        }
+        if (output != null) {
+            job.setParams(output);
+            work.jobChanged(job);
+        }
+        if (job.isOver()) {
+            //已经结束的JOB收到重复结果时不再计数
+            if (stepFinished) {
+                jobMetrics.jobFinished();
+            }
+            onJobOver(job, work);
+        } else {
+            if (job.getExecutingStepCount() == 0) {
+                doNext(job, work);
             } else {
-                if (job.getExecutingStepCount() == 0) {
-                    doNext(job);
-                } else {
-                    log.info("job executing:" + job.getExecutingStepCount() + ", job id: " + job.getJobId());
-                }
+                jobEventLog.jobExecuting(job);
             }
-        });
+        }
+    }
+
+    /**
+     * 步骤还在执行时记录从发送时间到现在的耗时，重复的结果不记录
+     *
+     * @return 步骤是否还在执行
+     */
+    private boolean recordStepFinished(JobStep step, long now) {
+        if (step == null || !step.isExecuting()) {
+            return false;
+        }
+        jobMetrics.stepFinished();
+        jobMetrics.record(JobMetrics.Timer.STEP_DURATION, TimeUnit.MILLISECONDS.toNanos(now - step.getDispatchTime()));
+        return true;
     }
 
     @Override
     public void retryJob(String jobId, String stepId) {
-        lockJob(jobId, () -> {
-            Job job = jobDAO.getJob(jobId);
-            job.retryStep(stepId);
-            this.doNext(job);
+        lockJob(jobId, work -> {
+            Job job = loadJob(jobId);
+            if (job.isOver()) {
+                jobMetrics.jobStarted();
+            }
+            JobStep step = job.findJobStep(stepId);
+            if (step != null && step.isExecuting()) {
+                jobMetrics.stepFinished();
+                releaseThrottle(work, job, stepId);
+                cancelTimeout(work, jobId, step);
+            }
+            work.stepChanged(job, job.retryStep(stepId));
+            this.doNext(job, work);
         });
     }
 
+    @Override
+    public void recoverDelayedSteps() {
+        long now = System.currentTimeMillis();
+        //分页读取，不需要一次加载所有JOB
+        String after = null;
+        List<Job> page;
+        do {
+            page = jobDAO.findPage(after, recoverPageSize);
+            page.stream()
+                    .filter(job -> shardRouter == null || shardRouter.isLocal(job.getId()))
+                    .forEach(job -> recoverDelayedSteps(job, now));
+            after = page.isEmpty() ? null : page.get(page.size() - 1).getId();
+        } while (page.size() == recoverPageSize);
+    }
+
+    private void recoverDelayedSteps(Job job, long now) {
+        if (!job.isOver()) {
+            jobMetrics.jobStarted();
+        }
+        job.getSteps().stream()
+                .filter(JobStep::isExecuting)
+                .forEach(step -> {
+                    jobMetrics.stepDispatched();
+                    JobMethod stepMethod = job.getStepMethod(step.getStepId());
+                    int tryTimes = step.getTryTimes();
+                    int timeout = step.getTimeout();
+                    if (step.isSent()) {
+                        //已经认领发送过，不再发送，超时从原来的发送时间算起
+                        if (timeout > 0) {
+                            watchTimeout(stepMethod, tryTimes, Math.max(step.getDispatchTime() + timeout - now, 0));
+                        }
+                    } else if (step.getDispatchTime() > now) {
+                        delayExecutor.execute(() -> claimAndDispatch(stepMethod, tryTimes, timeout, job.getPriority(), job.getBeginTime(), 0), step.getDispatchTime() - now);
+                    } else {
+                        //计划时间在停机期间过去、还没有认领的立即发送
+                        claimAndDispatch(stepMethod, tryTimes, timeout, job.getPriority(), job.getBeginTime(), 0);
+                    }
+                });
+    }
+
     @Override
     public List<Job> getExecutingJob() {
         return jobDAO.findAll();
     }
 
+    @Override
+    public List<Job> getExecutingJob(String afterJobSerialId, int limit) {
+        return jobDAO.findPage(afterJobSerialId, limit);
+    }
+
+    @Override
+    public List<JobSummary> getExecutingJobSummaries(JobSummaryQuery query, String afterJobSerialId, int limit) {
+        return jobDAO.findSummaryPage(query, afterJobSerialId, limit);
+    }
+
+    @Override
+    public void forEachExecutingJobSummary(JobSummaryQuery query, Consumer<JobSummary> consumer) {
+        jobDAO.forEachSummary(query, consumer);
+    }
+
     @Override
     public List<JobStep> getExecutingJobSteps(String jobId) {
-        return jobDAO.getJob(jobId).getSteps();
+        return loadJob(jobId).getSteps();
     }
 
-    private void onJobOver(Job job) {
-        log.info(() -> "job over: " + job.getId());
+    /**
+     * 成功结束的JOB在写入时删除，不再保存回去
+     */
+    private void onJobOver(Job job, JobUnitOfWork work) {
+        jobEventLog.jobOver(job);
+        if (jobCache != null) {
+            jobCache.evict(job.getId());
+        }
         if (job.isJobSuccessOver()) {
-            jobDAO.deleteJobById(job.getJobId());
+            work.jobDeleted(job);
         }
     }
 
     @Override
     public void executeStepByHttp(String jobId, String stepId, String host) {
-        host = host.startsWith(HTTP_PREFIX) ? host : HTTP_PREFIX + host;
-        Job job = jobDAO.getJob(jobId);
-        JobMethod jobMethod = job.getStepMethod(stepId);
-        stepInvoker.invokeJobMethodViaHttp(host, jobMethod);
+        invokeViaHttp(host, loadJob(jobId).getStepMethod(stepId));
+    }
+
+    private void invokeViaHttp(String host, JobMethod jobMethod) {
+        stepInvoker.invokeJobMethodViaHttp(host.startsWith(HTTP_PREFIX) ? host : HTTP_PREFIX + host, jobMethod);
     }
 
     @Override
     public void deleteJob(String jobId) {
-        jobDAO.deleteJobById(jobId);
+        lockJob(jobId, work -> {
+            Job job = loadJob(jobId);
+            if (job == null) {
+                jobDAO.deleteJobById(jobId);
+                return;
+            }
+            //发送中的步骤还回名额，不再检查超时
+            job.getSteps().stream()
+                    .filter(JobStep::isExecuting)
+                    .forEach(step -> {
+                        jobMetrics.stepFinished();
+                        releaseThrottle(work, job, step.getStepId());
+                        cancelTimeout(work, jobId, step);
+                    });
+            work.jobDeleted(job);
+        });
+        if (jobCache != null) {
+            jobCache.evict(jobId);
+        }
     }
 
     @Override
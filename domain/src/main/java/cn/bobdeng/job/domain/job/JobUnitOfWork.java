@@ -0,0 +1,114 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.entity.JobStep;
+import com.google.common.base.Preconditions;
+import lombok.extern.java.Log;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * 一次加锁期间对JOB的修改，先记录下来，解锁前合并成一次写入
+ */
+@Log
+class JobUnitOfWork {
+    private final JobDAO jobDAO;
+    private Job job;
+    private boolean jobChanged;
+    private boolean jobDeleted;
+    private final Map<String, JobStep> changedSteps = new LinkedHashMap<>();
+    private final List<Runnable> outbox = new ArrayList<>();
+
+    JobUnitOfWork(JobDAO jobDAO) {
+        this.jobDAO = jobDAO;
+    }
+
+    /**
+     * JOB本身有变化（新建或参数变化），写入时保存整个JOB
+     */
+    void jobChanged(Job job) {
+        attach(job);
+        jobChanged = true;
+    }
+
+    /**
+     * JOB已经结束，写入时按序列号删除，之前记录的修改不再保存
+     */
+    void jobDeleted(Job job) {
+        attach(job);
+        jobDeleted = true;
+    }
+
+    void stepChanged(Job job, JobStep step) {
+        if (step == null) {
+            return;
+        }
+        attach(job);
+        changedSteps.put(step.getStepId(), step);
+    }
+
+    private void attach(Job job) {
+        Preconditions.checkState(this.job == null || this.job == job, "only one job in a unit of work");
+        this.job = job;
+    }
+
+    boolean isJobDeleted() {
+        return jobDeleted;
+    }
+
+    /**
+     * 由调用方批量保存JOB时使用，只更新版本号，不写入；JOB已经删除时调用方不需要保存
+     */
+    void savedByCaller() {
+        if (jobChanged || !changedSteps.isEmpty()) {
+            job.setVersion(job.getVersion() + 1);
+        }
+        jobChanged = false;
+        jobDeleted = false;
+        changedSteps.clear();
+    }
+
+    /**
+     * 写入成功并解锁后才执行，用于发送步骤和启动定时器
+     */
+    void afterUnlock(Runnable runnable) {
+        outbox.add(runnable);
+    }
+
+    /**
+     * 修改已经写入，一个发送失败不影响其他的
+     */
+    void runAfterUnlock() {
+        outbox.forEach(runnable -> {
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "run after unlock failed, job serial: " + (job == null ? null : job.getId()), e);
+            }
+        });
+        outbox.clear();
+    }
+
+    Job getJob() {
+        return job;
+    }
+
+    void flush() {
+        if (jobDeleted) {
+            jobDAO.deleteJobById(job.getId());
+        } else if (jobChanged) {
+            job.setVersion(job.getVersion() + 1);
+            jobDAO.saveJob(job);
+        } else if (!changedSteps.isEmpty()) {
+            job.setVersion(job.getVersion() + 1);
+            jobDAO.saveChangedSteps(job, new ArrayList<>(changedSteps.values()));
+        }
+        jobChanged = false;
+        jobDeleted = false;
+        changedSteps.clear();
+    }
+}
@@ -0,0 +1,30 @@
+package cn.bobdeng.job.domain.job;
+
+/**
+ * 限流计数，多个节点共用同一个实现（比如Redis）时限制对所有节点生效。
+ * 发送中的名额按持有者记录并带租约，节点崩溃后没有释放的名额在租约到期后自动失效；
+ * 共享存储可以用有序集合实现，成员是持有者，分数是到期时间，计数前先删掉到期的成员
+ */
+public interface LimitCounterStore {
+    /**
+     * 没有过期的名额数小于limit时给holder加一个名额，holder已经持有时只续租
+     * @param holder 持有者，同一个持有者重复获取只占一个名额
+     * @param leaseMs 租约时长，到期前没有续租或者释放时名额失效
+     * @return 是否拿到名额，拿到的需要release
+     */
+    boolean tryAcquire(String key, String holder, int limit, long leaseMs);
+
+    /**
+     * 延长holder持有的名额的租约
+     * @return 名额是否还在，租约已经到期时返回false
+     */
+    boolean renew(String key, String holder, long leaseMs);
+
+    void release(String key, String holder);
+
+    /**
+     * 当前时间窗口里的计数小于limit时加1，窗口结束后重新计数
+     * @return 是否加成功
+     */
+    boolean tryAcquireInWindow(String key, int limit, long windowMs);
+}
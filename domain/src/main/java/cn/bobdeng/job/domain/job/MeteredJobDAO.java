@@ -0,0 +1,262 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.entity.*;
+import cn.bobdeng.job.domain.metrics.JobMetrics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 记录JobDAO每个方法耗时的装饰器，失败的调用也记录
+ */
+public class MeteredJobDAO implements JobDAO {
+    private final JobDAO jobDAO;
+    private final JobMetrics jobMetrics;
+
+    public MeteredJobDAO(JobDAO jobDAO, JobMetrics jobMetrics) {
+        this.jobDAO = jobDAO;
+        this.jobMetrics = jobMetrics;
+    }
+
+    @Override
+    public JobConfig getJobConfig(String jobId) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.getJobConfig(jobId);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_GET_JOB_CONFIG, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<JobStepConfig> getJobConfigSteps(String jobId) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.getJobConfigSteps(jobId);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_GET_JOB_CONFIG_STEPS, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public JobTemplate getJobTemplate(String jobId, long configVersion) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.getJobTemplate(jobId, configVersion);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_GET_JOB_TEMPLATE, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void saveJob(Job job) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.saveJob(job);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_SAVE_JOB, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void saveJobs(List<Job> jobs) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.saveJobs(jobs);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_SAVE_JOBS, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void lock(String jobId) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.lock(jobId);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_LOCK, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void releaseLock(String jobId) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.releaseLock(jobId);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_RELEASE_LOCK, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void saveSteps(Job job) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.saveSteps(job);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_SAVE_STEPS, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void saveChangedSteps(Job job, List<JobStep> steps) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.saveChangedSteps(job, steps);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_SAVE_CHANGED_STEPS, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Job getJob(String jobId) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.getJob(jobId);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_GET_JOB, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long getJobVersion(String jobId) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.getJobVersion(jobId);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_GET_JOB_VERSION, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Job> findAll() {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.findAll();
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_FIND_ALL, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Job> findPage(String afterJobSerialId, int limit) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.findPage(afterJobSerialId, limit);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_FIND_PAGE, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<JobSummary> findSummaryPage(JobSummaryQuery query, String afterJobSerialId, int limit) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.findSummaryPage(query, afterJobSerialId, limit);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_FIND_SUMMARY_PAGE, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void forEachSummary(JobSummaryQuery query, Consumer<JobSummary> consumer) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.forEachSummary(query, consumer);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_FOR_EACH_SUMMARY, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Job newJob(String jobId, String params) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.newJob(jobId, params);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_NEW_JOB, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<Job> newJobs(String jobId, List<String> paramsList) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.newJobs(jobId, paramsList);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_NEW_JOBS, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void deleteJobById(String jobId) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.deleteJobById(jobId);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_DELETE_JOB_BY_ID, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public List<JobConfig> getAllJobConfig() {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.getAllJobConfig();
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_GET_ALL_JOB_CONFIG, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void reloadJobConfig(String jobId) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.reloadJobConfig(jobId);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_RELOAD_JOB_CONFIG, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void putKey(String key, String value, int expireInMs) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.putKey(key, value, expireInMs);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_PUT_KEY, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public String getKey(String key) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.getKey(key);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_GET_KEY, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void putKeys(Map<String, String> keyValues, int expireInMs) {
+        long start = System.nanoTime();
+        try {
+            jobDAO.putKeys(keyValues, expireInMs);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_PUT_KEYS, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public Map<String, String> getKeys(Collection<String> keys) {
+        long start = System.nanoTime();
+        try {
+            return jobDAO.getKeys(keys);
+        } finally {
+            jobMetrics.record(JobMetrics.Timer.DAO_GET_KEYS, System.nanoTime() - start);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package cn.bobdeng.job.domain.job;
+
+import cn.bobdeng.job.domain.entity.JobMethod;
+import com.google.common.base.Preconditions;
+import lombok.extern.java.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * 所有JOB共用的发送队列，固定数量的发送线程按优先级（大的先）发送，同一个优先级里在jobId之间轮流，
+ * 同一个jobId按JOB开始时间（早的先）发送，一个JOB的大量步骤不会挡住其他JOB。
+ * 从发送到收到结果的步骤数不超过maxInFlight，步骤结束后调用release还回名额；
+ * 结果在其他节点处理、节点收不到结果时名额在租约到期后收回，不会一直占着。
+ * 忙的时候高优先级的JOB不会排在大量低优先级的JOB后面
+ */
+@Log
+public class PriorityDispatcher {
+    public static final int DEFAULT_THREADS = 16;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    public static final long DEFAULT_SLOT_LEASE_MS = 60000;
+    private static final Comparator<Entry> JOB_ORDER = Comparator.<Entry>comparingLong(entry -> entry.beginTime)
+            .thenComparingLong(entry -> entry.sequence);
+    private final int maxInFlight;
+    private final long slotLeaseMs;
+    //以下字段在持有lock时读写
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ready = lock.newCondition();
+    //优先级大的在前，空的优先级和jobId会被删掉
+    private final TreeMap<Integer, PriorityLevel> levels = new TreeMap<>(Comparator.reverseOrder());
+    //发送中的步骤和名额的到期时间
+    private final Map<String, Long> inFlight = new HashMap<>();
+    private long sequence;
+    private int queued;
+    //在等待步骤的发送线程数
+    private int idle;
+    private final List<Thread> workers = new ArrayList<>();
+    private final LongAdder dispatched = new LongAdder();
+    private final LongAdder expired = new LongAdder();
+    private volatile boolean running = true;
+
+    private static class Entry {
+        private final long beginTime;
+        private final long sequence;
+        private final String stepKey;
+        private final Consumer<Boolean> dispatch;
+        //提交时没有空闲的发送线程或者名额，或者前面还有步骤
+        private final boolean queued;
+
+        private Entry(long beginTime, long sequence, String stepKey, Consumer<Boolean> dispatch, boolean queued) {
+            this.beginTime = beginTime;
+            this.sequence = sequence;
+            this.stepKey = stepKey;
+            this.dispatch = dispatch;
+            this.queued = queued;
+        }
+    }
+
+    /**
+     * 一个优先级里每个jobId一个队列，按rotation的顺序轮流取
+     */
+    private static class PriorityLevel {
+        private final Map<String, PriorityQueue<Entry>> jobs = new HashMap<>();
+        private final ArrayDeque<String> rotation = new ArrayDeque<>();
+
+        private void add(String jobId, Entry entry) {
+            PriorityQueue<Entry> queue = jobs.get(jobId);
+            if (queue == null) {
+                queue = new PriorityQueue<>(JOB_ORDER);
+                jobs.put(jobId, queue);
+                rotation.add(jobId);
+            }
+            queue.add(entry);
+        }
+
+        private Entry poll() {
+            String jobId = rotation.poll();
+            PriorityQueue<Entry> queue = jobs.get(jobId);
+            Entry entry = queue.poll();
+            if (queue.isEmpty()) {
+                jobs.remove(jobId);
+            } else {
+                rotation.add(jobId);
+            }
+            return entry;
+        }
+
+        private boolean isEmpty() {
+            return rotation.isEmpty();
+        }
+    }
+
+    public PriorityDispatcher() {
+        this(DEFAULT_THREADS);
+    }
+
+    public PriorityDispatcher(int threads) {
+        this(threads, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public PriorityDispatcher(int threads, int maxInFlight) {
+        this(threads, maxInFlight, DEFAULT_SLOT_LEASE_MS);
+    }
+
+    /**
+     * @param threads     发送线程数，同时调用发送的上限
+     * @param maxInFlight 从发送到收到结果的步骤数上限
+     * @param slotLeaseMs 发送中名额的租约，到期还没有release的名额收回；应该比步骤通常的执行时间长
+     */
+    public PriorityDispatcher(int threads, int maxInFlight, long slotLeaseMs) {
+        Preconditions.checkArgument(threads > 0, "threads must > 0");
+        Preconditions.checkArgument(maxInFlight > 0, "max in flight must > 0");
+        Preconditions.checkArgument(slotLeaseMs > 0, "slot lease must > 0");
+        this.maxInFlight = maxInFlight;
+        this.slotLeaseMs = slotLeaseMs;
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::run, "job-priority-dispatcher-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+        workers.forEach(Thread::start);
+    }
+
+    /**
+     * @param priority  JOB配置的优先级
+     * @param beginTime JOB的开始时间
+     * @param dispatch  在发送线程里执行，参数是步骤是否排过队
+     * @return 步骤是否需要排队，有空闲的发送线程和名额并且前面没有步骤时不用排队
+     */
+    public boolean submit(int priority, long beginTime, JobMethod stepMethod, Consumer<Boolean> dispatch) {
+        Preconditions.checkState(running, "priority dispatcher stopped");
+        lock.lock();
+        try {
+            boolean wait = queued >= idle || inFlight.size() + queued >= maxInFlight;
+            Entry entry = new Entry(beginTime, sequence++, stepKey(stepMethod.getJobSerialId(), stepMethod.getJobStepId()), dispatch, wait);
+            levels.computeIfAbsent(priority, key -> new PriorityLevel()).add(stepMethod.getJobId(), entry);
+            queued++;
+            ready.signal();
+            return wait;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 步骤有结果、失败或者被重置时调用，还回发送中的名额；没有占用名额时什么都不做
+     */
+    public void release(String jobSerialId, String stepId) {
+        lock.lock();
+        try {
+            if (inFlight.remove(stepKey(jobSerialId, stepId)) != null) {
+                ready.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String stepKey(String jobSerialId, String stepId) {
+        return jobSerialId + "/" + stepId;
+    }
+
+    private void run() {
+        while (running) {
+            Entry entry;
+            try {
+                entry = take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            try {
+                entry.dispatch.accept(entry.queued);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "priority dispatch failed", e);
+            }
+            dispatched.increment();
+        }
+    }
+
+    /**
+     * 等到有步骤并且有发送中的名额，取出的步骤占用一个名额；名额用完时等到最早的名额到期
+     */
+    private Entry take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            long waitMs;
+            while ((waitMs = waitMs()) != 0) {
+                idle++;
+                try {
+                    if (waitMs < 0) {
+                        ready.await();
+                    } else {
+                        ready.await(waitMs, TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    idle--;
+                }
+            }
+            Map.Entry<Integer, PriorityLevel> first = levels.firstEntry();
+            Entry entry = first.getValue().poll();
+            if (first.getValue().isEmpty()) {
+                levels.remove(first.getKey());
+            }
+            queued--;
+            inFlight.put(entry.stepKey, System.currentTimeMillis() + slotLeaseMs);
+            //还有步骤和名额时唤醒下一个发送线程
+            if (queued > 0 && inFlight.size() < maxInFlight) {
+                ready.signal();
+            }
+            return entry;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 有步骤但是名额用完时先收回到期的名额，在持有lock时调用
+     *
+     * @return 0表示可以取步骤，-1表示没有步骤，否则是离最早的名额到期还有多少毫秒
+     */
+    private long waitMs() {
+        if (queued == 0) {
+            return -1;
+        }
+        if (inFlight.size() < maxInFlight) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long earliest = Long.MAX_VALUE;
+        Iterator<Map.Entry<String, Long>> slots = inFlight.entrySet().iterator();
+        while (slots.hasNext()) {
+            Map.Entry<String, Long> slot = slots.next();
+            if (slot.getValue() <= now) {
+                slots.remove();
+                expired.increment();
+                log.warning(() -> "priority dispatcher slot expired: " + slot.getKey());
+            } else {
+                earliest = Math.min(earliest, slot.getValue());
+            }
+        }
+        return inFlight.size() < maxInFlight ? 0 : earliest - now;
+    }
+
+    /**
+     * 等待发送的步骤数
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已经发送还没有结果的步骤数
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDispatched() {
+        return dispatched.sum();
+    }
+
+    /**
+     * 租约到期收回的名额数，一直增长说明有结果没有回到发送的节点
+     */
+    public long getExpired() {
+        return expired.sum();
+    }
+
+    /**
+     * 停止发送线程，还在队列里的步骤不再发送，配置了超时的步骤会按超时重试
+     */
+    public void shutdown() {
+        running = false;
+        workers.forEach(Thread::interrupt);
+    }
+}
@@ -0,0 +1,85 @@
+package cn.bobdeng.job.domain.job;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 重复JOB检查的Key计算方式，参数直接流式写入哈希，不拼接字符串。
+ * MD5：原来的Key，兼容已有数据；
+ * DUAL：切换期间使用，两种Key都写入，任意一个存在就算重复；
+ * MURMUR3：非加密的128位哈希，长参数时比MD5快2到3倍。
+ */
+public enum RepeatHashMode {
+    MD5, DUAL, MURMUR3;
+
+    private static final String MURMUR3_PREFIX = "m3:";
+    private static final int CHUNK_CHARS = 8192;
+
+    /**
+     * @return 要检查和写入的Key，第一个是主Key
+     */
+    public List<String> keysOf(String jobId, String params) {
+        switch (this) {
+            case DUAL:
+                return ImmutableList.of(murmur3(jobId, params), md5(jobId, params));
+            case MURMUR3:
+                return ImmutableList.of(murmur3(jobId, params));
+            default:
+                return ImmutableList.of(md5(jobId, params));
+        }
+    }
+
+    /**
+     * 和原来的md5(jobId + params)结果相同
+     */
+    static String md5(String jobId, String params) {
+        return Hashing.md5().newHasher()
+                .putString(String.valueOf(jobId), StandardCharsets.UTF_8)
+                .putString(String.valueOf(params), StandardCharsets.UTF_8)
+                .hash()
+                .toString();
+    }
+
+    /**
+     * 写入jobId长度区分jobId和params的边界，加前缀和MD5的Key区分
+     */
+    static String murmur3(String jobId, String params) {
+        String id = String.valueOf(jobId);
+        Hasher hasher = Hashing.murmur3_128().newHasher().putInt(id.length());
+        putChars(hasher, id);
+        putChars(hasher, String.valueOf(params));
+        return MURMUR3_PREFIX + hasher.hash().toString();
+    }
+
+    /**
+     * 分块复制字符写入，不生成完整的字节数组。参数一般是JSON，全是ASCII的块每个字符写1个字节，
+     * 否则每个字符写2个字节，块前写入一个标记区分两种写法
+     */
+    private static void putChars(Hasher hasher, String chars) {
+        int chunkSize = Math.min(chars.length(), CHUNK_CHARS);
+        char[] chunk = new char[chunkSize];
+        byte[] bytes = new byte[chunkSize * 2];
+        for (int start = 0; start < chars.length(); start += CHUNK_CHARS) {
+            int length = Math.min(CHUNK_CHARS, chars.length() - start);
+            chars.getChars(start, start + length, chunk, 0);
+            int ascii = 0;
+            while (ascii < length && chunk[ascii] < 0x80) {
+                bytes[ascii] = (byte) chunk[ascii];
+                ascii++;
+            }
+            if (ascii == length) {
+                hasher.putBoolean(true).putBytes(bytes, 0, length);
+            } else {
+                for (int i = 0; i < length; i++) {
+                    bytes[i * 2] = (byte) chunk[i];
+                    bytes[i * 2 + 1] = (byte) (chunk[i] >>> 8);
+                }
+                hasher.putBoolean(false).putBytes(bytes, 0, length * 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package cn.bobdeng.job.domain.job;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * 重复JOB检查前的本地布隆过滤器，过滤器确定没有的Key不再查询JobDAO。
+ * 按bucketMs分桶轮换，保留当前和上一个桶，Key至少保留bucketMs，bucketMs不能小于Key的过期时间。
+ * 创建后经过一个bucketMs才开始使用，之前写入的Key已经过期。
+ * 只记录本节点写入的Key，只有本节点是唯一写入重复Key的节点（或者相同参数的JOB总是在同一个节点启动）时才能使用。
+ */
+public class RepeatKeyFilter {
+    public static final int DEFAULT_EXPECTED_INSERTIONS = 1000000;
+    public static final double DEFAULT_FPP = 0.01;
+    private final int expectedInsertions;
+    private final double fpp;
+    private final long bucketMs;
+    private final LongSupplier clock;
+    private final long warmAt;
+    private BloomFilter<CharSequence> current;
+    private BloomFilter<CharSequence> previous;
+    private long bucketEndAt;
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+
+    public RepeatKeyFilter(long bucketMs) {
+        this(DEFAULT_EXPECTED_INSERTIONS, DEFAULT_FPP, bucketMs, System::currentTimeMillis);
+    }
+
+    /**
+     * @param expectedInsertions 每个桶预计写入的Key数
+     */
+    public RepeatKeyFilter(int expectedInsertions, double fpp, long bucketMs, LongSupplier clock) {
+        Preconditions.checkArgument(expectedInsertions > 0, "expected insertions must > 0");
+        Preconditions.checkArgument(fpp > 0 && fpp < 1, "fpp must in (0, 1)");
+        Preconditions.checkArgument(bucketMs > 0, "bucket must > 0");
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.bucketMs = bucketMs;
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.warmAt = now + bucketMs;
+        this.current = newBucket();
+        this.previous = newBucket();
+        this.bucketEndAt = now + bucketMs;
+    }
+
+    private BloomFilter<CharSequence> newBucket() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), expectedInsertions, fpp);
+    }
+
+    public boolean isWarm() {
+        return clock.getAsLong() >= warmAt;
+    }
+
+    /**
+     * @return true表示Key可能存在或者还不能使用过滤器，需要查询JobDAO；false表示一定没有
+     */
+    public synchronized boolean mightContainAny(Collection<String> keys) {
+        if (!isWarm()) {
+            return true;
+        }
+        rotate();
+        if (keys.stream().anyMatch(key -> current.mightContain(key) || previous.mightContain(key))) {
+            return true;
+        }
+        skipped.increment();
+        return false;
+    }
+
+    public synchronized void put(String key) {
+        rotate();
+        current.put(key);
+    }
+
+    /**
+     * 过滤器认为可能存在，查询JobDAO后发现不存在时调用
+     */
+    public void recordFalsePositive() {
+        falsePositives.increment();
+    }
+
+    private void rotate() {
+        long now = clock.getAsLong();
+        if (now < bucketEndAt) {
+            return;
+        }
+        //超过两个桶没有使用时全部清空
+        previous = now < bucketEndAt + bucketMs ? current : newBucket();
+        current = newBucket();
+        bucketEndAt = now + bucketMs;
+    }
+
+    /**
+     * 跳过JobDAO查询的次数
+     */
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getFalsePositives() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * 实际的误判率：新Key里被误判为可能存在的比例
+     */
+    public double getObservedFpp() {
+        long positives = falsePositives.sum();
+        long total = positives + skipped.sum();
+        return total == 0 ? 0 : (double) positives / total;
+    }
+
+    /**
+     * 当前桶按已经写入的Key数估算的误判率
+     */
+    public synchronized double getExpectedFpp() {
+        return current.expectedFpp();
+    }
+
+    /**
+     * 两个桶位数组占用的字节数
+     */
+    public long getMemoryBytes() {
+        long bits = (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        return 2 * (bits + 63) / 64 * 8;
+    }
+}
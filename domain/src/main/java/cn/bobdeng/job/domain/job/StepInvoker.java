@@ -2,9 +2,34 @@ package cn.bobdeng.job.domain.job;
 
 import cn.bobdeng.job.domain.entity.JobMethod;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public interface StepInvoker {
     void invoke(JobMethod stepMethod);
 
+    /**
+     * 调用同一个方法的多个步骤，传输层支持批量发送时覆盖这个方法
+     */
+    default void invokeAll(List<JobMethod> stepMethods) {
+        stepMethods.forEach(this::invoke);
+    }
+
+    /**
+     * 异步发送，Future完成表示执行端已经收到，异常完成时按步骤失败处理。
+     * 默认在调用线程执行invoke，传输层支持异步时覆盖这个方法
+     */
+    default CompletableFuture<Void> invokeAsync(JobMethod stepMethod) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            invoke(stepMethod);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
     void invokeJobMethodViaHttp(String host, JobMethod jobMethod);
 
 }
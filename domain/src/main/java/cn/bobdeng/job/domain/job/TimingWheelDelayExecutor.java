@@ -0,0 +1,172 @@
+package cn.bobdeng.job.domain.job;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.java.Log;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * 分层时间轮实现的延迟执行，加入任务O(1)，一个线程推进时间轮，到期任务交给taskExecutor执行。
+ * 4层每层256格，tickMs为100毫秒时最长可以延迟13年以上，更长的延迟按最长处理。
+ */
+@Log
+public class TimingWheelDelayExecutor implements DelayExecutor {
+    public static final long DEFAULT_TICK_MS = 100;
+    private static final int WHEEL_BITS = 8;
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = (1L << (WHEEL_BITS * LEVELS)) - 1;
+
+    private final long tickNanos;
+    private final Executor taskExecutor;
+    private final long startNanos;
+    private final Queue<Timer> added = new ConcurrentLinkedQueue<>();
+    private final Timer[][] wheels = new Timer[LEVELS][WHEEL_SIZE];
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final Thread worker;
+    private volatile boolean running = true;
+    //下一个要处理的tick，只在worker线程访问
+    private long tick;
+
+    public TimingWheelDelayExecutor() {
+        this(DEFAULT_TICK_MS, newTaskExecutor());
+    }
+
+    public TimingWheelDelayExecutor(long tickMs, Executor taskExecutor) {
+        Preconditions.checkArgument(tickMs > 0, "tick must > 0");
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        this.taskExecutor = taskExecutor;
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, "job-delay-timer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    private static ExecutorService newTaskExecutor() {
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "job-delay-task");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static class Timer {
+        private final long expireTick;
+        private final Runnable task;
+        private Timer next;
+
+        private Timer(long expireTick, Runnable task) {
+            this.expireTick = expireTick;
+            this.task = task;
+        }
+    }
+
+    @Override
+    public void execute(Runnable runnable, long delay) {
+        Preconditions.checkState(running, "delay executor stopped");
+        long elapsedNanos = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(delay, 0));
+        //向上取整，保证不会提前执行
+        long expireTick = (elapsedNanos + tickNanos - 1) / tickNanos;
+        added.add(new Timer(expireTick, runnable));
+        pendingCount.incrementAndGet();
+    }
+
+    /**
+     * 还没有执行的任务数
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long deadline = startNanos + tick * tickNanos;
+            long sleepNanos = deadline - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+            transferAdded();
+            int index = (int) (tick & WHEEL_MASK);
+            //低层转完一圈时把上一层对应格子里的任务分配到下层
+            for (int level = 1; level < LEVELS && indexOf(tick, level - 1) == 0; level++) {
+                cascade(level, indexOf(tick, level));
+            }
+            Timer timer = wheels[0][index];
+            wheels[0][index] = null;
+            expire(timer);
+            tick++;
+        }
+    }
+
+    private static int indexOf(long tick, int level) {
+        return (int) ((tick >>> (WHEEL_BITS * level)) & WHEEL_MASK);
+    }
+
+    private void transferAdded() {
+        Timer timer;
+        while ((timer = added.poll()) != null) {
+            place(timer);
+        }
+    }
+
+    private void place(Timer timer) {
+        long ticks = Math.min(timer.expireTick - tick, MAX_TICKS);
+        int level;
+        long expireTick;
+        if (ticks < 0) {
+            //已经到期的放到当前格子
+            level = 0;
+            expireTick = tick;
+        } else {
+            level = 0;
+            while (level < LEVELS - 1 && ticks >= 1L << (WHEEL_BITS * (level + 1))) {
+                level++;
+            }
+            expireTick = tick + ticks;
+        }
+        int index = indexOf(expireTick, level);
+        timer.next = wheels[level][index];
+        wheels[level][index] = timer;
+    }
+
+    private void cascade(int level, int index) {
+        Timer timer = wheels[level][index];
+        wheels[level][index] = null;
+        while (timer != null) {
+            Timer next = timer.next;
+            place(timer);
+            timer = next;
+        }
+    }
+
+    private void expire(Timer timer) {
+        while (timer != null) {
+            Timer next = timer.next;
+            timer.next = null;
+            pendingCount.decrementAndGet();
+            try {
+                taskExecutor.execute(timer.task);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "delay task rejected", e);
+            }
+            timer = next;
+        }
+    }
+}
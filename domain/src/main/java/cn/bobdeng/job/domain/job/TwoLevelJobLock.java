@@ -0,0 +1,131 @@
+package cn.bobdeng.job.domain.job;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 两级JOB锁：本节点的线程先在本地锁上排队，第一个线程获取分布式锁，
+ * 释放时本地还有线程在等就把分布式锁直接交给下一个线程，本地队列空了才释放分布式锁。
+ * 连续交接超过maxHandOffs次也会释放一次分布式锁，避免其他节点饿死。
+ * 释放分布式锁的线程可能不是获取的线程，JobDAO的锁不能和线程绑定（如数据库会话锁、ReentrantLock），
+ * 这样的JobDAO使用DistributedJobLock。
+ */
+public class TwoLevelJobLock implements JobLock {
+    public static final int DEFAULT_MAX_HAND_OFFS = 64;
+    private final JobDAO jobDAO;
+    private final int maxHandOffs;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder distributedAcquisitions = new LongAdder();
+    private final LongAdder handOffs = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    public TwoLevelJobLock(JobDAO jobDAO) {
+        this(jobDAO, DEFAULT_MAX_HAND_OFFS);
+    }
+
+    public TwoLevelJobLock(JobDAO jobDAO, int maxHandOffs) {
+        Preconditions.checkArgument(maxHandOffs >= 0, "max hand offs must >= 0");
+        this.jobDAO = jobDAO;
+        this.maxHandOffs = maxHandOffs;
+    }
+
+    private static class Entry {
+        //公平锁，本地按到达顺序排队
+        private final ReentrantLock lock = new ReentrantLock(true);
+        //持有和等待的线程数，只在entries.compute里修改
+        private int users;
+        //以下字段在持有lock时读写
+        private boolean distributedHeld;
+        private int handOffCount;
+    }
+
+    @Override
+    public void lock(String jobSerialId) {
+        long begin = System.nanoTime();
+        Entry entry = entries.compute(jobSerialId, (key, current) -> {
+            Entry result = current == null ? new Entry() : current;
+            result.users++;
+            return result;
+        });
+        entry.lock.lock();
+        try {
+            if (entry.distributedHeld) {
+                entry.handOffCount++;
+                handOffs.increment();
+            } else {
+                jobDAO.lock(jobSerialId);
+                entry.distributedHeld = true;
+                entry.handOffCount = 0;
+                distributedAcquisitions.increment();
+            }
+        } catch (RuntimeException e) {
+            leave(jobSerialId);
+            entry.lock.unlock();
+            throw e;
+        }
+        acquisitions.increment();
+        waitNanos.add(System.nanoTime() - begin);
+    }
+
+    @Override
+    public void unlock(String jobSerialId) {
+        Entry entry = entries.get(jobSerialId);
+        Preconditions.checkState(entry != null && entry.lock.isHeldByCurrentThread(), "job lock not held: %s", jobSerialId);
+        try {
+            boolean waiting = leave(jobSerialId);
+            //重入时外层还持有锁，分布式锁保持不动
+            if (entry.lock.getHoldCount() == 1 && (!waiting || entry.handOffCount >= maxHandOffs)) {
+                entry.distributedHeld = false;
+                jobDAO.releaseLock(jobSerialId);
+            }
+        } finally {
+            entry.lock.unlock();
+        }
+    }
+
+    /**
+     * @return 是否还有其他线程在使用
+     */
+    private boolean leave(String jobSerialId) {
+        return entries.compute(jobSerialId, (key, current) -> {
+            current.users--;
+            return current.users == 0 ? null : current;
+        }) != null;
+    }
+
+    /**
+     * 本地排队等待该JOB锁的线程数
+     */
+    public int getQueueLength(String jobSerialId) {
+        Entry entry = entries.get(jobSerialId);
+        return entry == null ? 0 : entry.lock.getQueueLength();
+    }
+
+    public long getAcquisitions() {
+        return acquisitions.sum();
+    }
+
+    public long getDistributedAcquisitions() {
+        return distributedAcquisitions.sum();
+    }
+
+    /**
+     * 分布式锁直接交给本地下一个线程的次数
+     */
+    public long getHandOffs() {
+        return handOffs.sum();
+    }
+
+    public long getTotalWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    public long getAverageWaitNanos() {
+        long count = acquisitions.sum();
+        return count == 0 ? 0 : waitNanos.sum() / count;
+    }
+}
@@ -0,0 +1,84 @@
+package cn.bobdeng.job.domain.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 指标保存在本进程内存里，每种时间一个LogHistogram，由调用方定时读取后输出
+ */
+public class InMemoryJobMetrics implements JobMetrics {
+    private final LogHistogram[] histograms = new LogHistogram[Timer.values().length];
+    private final ConcurrentHashMap<String, LongAdder> retries = new ConcurrentHashMap<>();
+    private final LongAdder inFlightJobs = new LongAdder();
+    private final LongAdder inFlightSteps = new LongAdder();
+
+    public InMemoryJobMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LogHistogram();
+        }
+    }
+
+    @Override
+    public void record(Timer timer, long nanos) {
+        histograms[timer.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void retry(String jobMethod) {
+        LongAdder counter = retries.get(jobMethod);
+        if (counter == null) {
+            //每个方法只在第一次重试时创建
+            counter = retries.computeIfAbsent(jobMethod, method -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    @Override
+    public void jobStarted() {
+        inFlightJobs.increment();
+    }
+
+    @Override
+    public void jobFinished() {
+        inFlightJobs.decrement();
+    }
+
+    @Override
+    public void stepDispatched() {
+        inFlightSteps.increment();
+    }
+
+    @Override
+    public void stepFinished() {
+        inFlightSteps.decrement();
+    }
+
+    public LogHistogram getHistogram(Timer timer) {
+        return histograms[timer.ordinal()];
+    }
+
+    public long getRetries(String jobMethod) {
+        LongAdder counter = retries.get(jobMethod);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * 每个方法的重试次数
+     */
+    public Map<String, Long> getRetries() {
+        Map<String, Long> result = new HashMap<>();
+        retries.forEach((method, counter) -> result.put(method, counter.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    public long getInFlightJobs() {
+        return inFlightJobs.sum();
+    }
+
+    public long getInFlightSteps() {
+        return inFlightSteps.sum();
+    }
+}
@@ -0,0 +1,55 @@
+package cn.bobdeng.job.domain.metrics;
+
+/**
+ * JOB生命周期的指标，在处理JOB的线程里同步调用，实现不能阻塞，也不应该分配对象。
+ * 时间都以纳秒记录；进行中的JOB和步骤数是本节点看到的数量
+ */
+public interface JobMetrics {
+    enum Timer {
+        LOCK_WAIT,//等待JOB锁
+        LOCK_HOLD,//持有JOB锁
+        DISPATCH,//发送步骤到发送完成
+        QUEUE,//JOB创建到第一批步骤发送
+        STEP_DURATION,//步骤发送到收到结果，不包括限流和优先级排队时间
+        //JobDAO每个方法的耗时
+        DAO_GET_JOB_CONFIG,
+        DAO_GET_JOB_CONFIG_STEPS,
+        DAO_GET_JOB_TEMPLATE,
+        DAO_SAVE_JOB,
+        DAO_SAVE_JOBS,
+        DAO_LOCK,
+        DAO_RELEASE_LOCK,
+        DAO_SAVE_STEPS,
+        DAO_SAVE_CHANGED_STEPS,
+        DAO_GET_JOB,
+        DAO_GET_JOB_VERSION,
+        DAO_FIND_ALL,
+        DAO_FIND_PAGE,
+        DAO_FIND_SUMMARY_PAGE,
+        DAO_FOR_EACH_SUMMARY,
+        DAO_NEW_JOB,
+        DAO_NEW_JOBS,
+        DAO_DELETE_JOB_BY_ID,
+        DAO_GET_ALL_JOB_CONFIG,
+        DAO_RELOAD_JOB_CONFIG,
+        DAO_PUT_KEY,
+        DAO_GET_KEY,
+        DAO_PUT_KEYS,
+        DAO_GET_KEYS
+    }
+
+    void record(Timer timer, long nanos);
+
+    /**
+     * 步骤重试一次
+     */
+    void retry(String jobMethod);
+
+    void jobStarted();
+
+    void jobFinished();
+
+    void stepDispatched();
+
+    void stepFinished();
+}
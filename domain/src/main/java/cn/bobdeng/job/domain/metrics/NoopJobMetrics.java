@@ -0,0 +1,35 @@
+package cn.bobdeng.job.domain.metrics;
+
+/**
+ * 不记录任何指标，默认使用
+ */
+public final class NoopJobMetrics implements JobMetrics {
+    public static final NoopJobMetrics INSTANCE = new NoopJobMetrics();
+
+    private NoopJobMetrics() {
+    }
+
+    @Override
+    public void record(Timer timer, long nanos) {
+    }
+
+    @Override
+    public void retry(String jobMethod) {
+    }
+
+    @Override
+    public void jobStarted() {
+    }
+
+    @Override
+    public void jobFinished() {
+    }
+
+    @Override
+    public void stepDispatched() {
+    }
+
+    @Override
+    public void stepFinished() {
+    }
+}
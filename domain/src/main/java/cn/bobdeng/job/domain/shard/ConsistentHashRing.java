@@ -0,0 +1,73 @@
+package cn.bobdeng.job.domain.shard;
+
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * 一致性哈希环，每个节点放多个虚拟节点，不可变
+ */
+public class ConsistentHashRing {
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+    private final int[] hashes;
+    private final String[] nodes;
+
+    private ConsistentHashRing(int[] hashes, String[] nodes) {
+        this.hashes = hashes;
+        this.nodes = nodes;
+    }
+
+    public static ConsistentHashRing of(Collection<String> nodes) {
+        return of(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public static ConsistentHashRing of(Collection<String> nodes, int virtualNodes) {
+        List<VirtualNode> virtualNodeList = new ArrayList<>(nodes.size() * virtualNodes);
+        for (String node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                virtualNodeList.add(new VirtualNode(hash(node + "#" + i), node));
+            }
+        }
+        virtualNodeList.sort(Comparator.comparingInt((VirtualNode virtualNode) -> virtualNode.hash)
+                .thenComparing(virtualNode -> virtualNode.node));
+        int[] hashes = new int[virtualNodeList.size()];
+        String[] nodeArray = new String[virtualNodeList.size()];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = virtualNodeList.get(i).hash;
+            nodeArray[i] = virtualNodeList.get(i).node;
+        }
+        return new ConsistentHashRing(hashes, nodeArray);
+    }
+
+    /**
+     * @return 没有节点时返回null
+     */
+    public String nodeFor(String key) {
+        if (hashes.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(hashes, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return nodes[index == hashes.length ? 0 : index];
+    }
+
+    private static int hash(String key) {
+        return Hashing.murmur3_32().hashUnencodedChars(key).asInt();
+    }
+
+    private static class VirtualNode {
+        private final int hash;
+        private final String node;
+
+        private VirtualNode(int hash, String node) {
+            this.hash = hash;
+            this.node = node;
+        }
+    }
+}
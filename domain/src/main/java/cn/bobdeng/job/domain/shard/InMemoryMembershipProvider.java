@@ -0,0 +1,59 @@
+package cn.bobdeng.job.domain.shard;
+
+import com.google.common.collect.ImmutableSortedSet;
+
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * 内存中的节点成员，用于测试和单节点部署
+ */
+public class InMemoryMembershipProvider implements MembershipProvider {
+    private final String localNode;
+    private final Set<String> nodes = new TreeSet<>();
+    private final CopyOnWriteArrayList<Consumer<Set<String>>> listeners = new CopyOnWriteArrayList<>();
+
+    public InMemoryMembershipProvider(String localNode) {
+        this.localNode = localNode;
+        this.nodes.add(localNode);
+    }
+
+    @Override
+    public String getLocalNode() {
+        return localNode;
+    }
+
+    @Override
+    public synchronized Set<String> getNodes() {
+        return ImmutableSortedSet.copyOf(nodes);
+    }
+
+    @Override
+    public void addListener(Consumer<Set<String>> listener) {
+        listeners.add(listener);
+    }
+
+    public void join(String node) {
+        Set<String> current;
+        synchronized (this) {
+            if (!nodes.add(node)) {
+                return;
+            }
+            current = getNodes();
+        }
+        listeners.forEach(listener -> listener.accept(current));
+    }
+
+    public void leave(String node) {
+        Set<String> current;
+        synchronized (this) {
+            if (!nodes.remove(node)) {
+                return;
+            }
+            current = getNodes();
+        }
+        listeners.forEach(listener -> listener.accept(current));
+    }
+}
@@ -0,0 +1,17 @@
+package cn.bobdeng.job.domain.shard;
+
+import cn.bobdeng.job.domain.entity.JobResult;
+
+import java.util.Collection;
+
+/**
+ * 把步骤结果转发给JOB所属的节点，对方收到后调用JobService.onForwardedJobResults
+ */
+public interface JobResultForwarder {
+    /**
+     * @param node 目标节点
+     * @param jobResults 同一个JOB的结果
+     * @return 是否转发成功，失败时由本节点处理
+     */
+    boolean forward(String node, Collection<JobResult> jobResults);
+}
@@ -0,0 +1,53 @@
+package cn.bobdeng.job.domain.shard;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按JOB流水号把JOB分配到控制节点，节点变化时重建哈希环并通知重新分配
+ */
+public class JobShardRouter {
+    private final MembershipProvider membershipProvider;
+    private final int virtualNodes;
+    private final CopyOnWriteArrayList<Runnable> rebalanceListeners = new CopyOnWriteArrayList<>();
+    private volatile ConsistentHashRing ring;
+
+    public JobShardRouter(MembershipProvider membershipProvider) {
+        this(membershipProvider, ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+    }
+
+    public JobShardRouter(MembershipProvider membershipProvider, int virtualNodes) {
+        this.membershipProvider = membershipProvider;
+        this.virtualNodes = virtualNodes;
+        this.ring = ConsistentHashRing.of(membershipProvider.getNodes(), virtualNodes);
+        membershipProvider.addListener(this::rebalance);
+    }
+
+    private void rebalance(Set<String> nodes) {
+        ring = ConsistentHashRing.of(nodes, virtualNodes);
+        rebalanceListeners.forEach(Runnable::run);
+    }
+
+    /**
+     * 节点变化、哈希环重建后回调
+     */
+    public void addRebalanceListener(Runnable listener) {
+        rebalanceListeners.add(listener);
+    }
+
+    public String ownerOf(String jobSerialId) {
+        return ring.nodeFor(jobSerialId);
+    }
+
+    public String getLocalNode() {
+        return membershipProvider.getLocalNode();
+    }
+
+    /**
+     * 没有任何节点时视为本节点所有
+     */
+    public boolean isLocal(String jobSerialId) {
+        String owner = ownerOf(jobSerialId);
+        return owner == null || owner.equals(getLocalNode());
+    }
+}
@@ -0,0 +1,27 @@
+package cn.bobdeng.job.domain.shard;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * 控制节点成员，由注册中心等实现
+ */
+public interface MembershipProvider {
+    /**
+     * 本节点ID
+     * @return
+     */
+    String getLocalNode();
+
+    /**
+     * 当前存活的节点，包括本节点
+     * @return
+     */
+    Set<String> getNodes();
+
+    /**
+     * 节点变化时回调，参数是变化后的节点
+     * @param listener
+     */
+    void addListener(Consumer<Set<String>> listener);
+}
@@ -0,0 +1,691 @@
+package cn.bobdeng.job.domain.store;
+
+import cn.bobdeng.job.domain.codec.BinaryInput;
+import cn.bobdeng.job.domain.codec.BinaryOutput;
+import cn.bobdeng.job.domain.codec.JobCodec;
+import cn.bobdeng.job.domain.codec.JobTemplateResolver;
+import cn.bobdeng.job.domain.entity.*;
+import cn.bobdeng.job.domain.job.JobDAO;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.Striped;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * 单节点的JobDAO，数据在内存里，JOB按JobCodec格式保存。
+ * 配置了目录时每次修改追加一条日志，写入线程组提交；日志记录数超过snapshotEveryRecords后在后台线程写一次快照：
+ * 先切换到新日志，再不加锁地逐条写出当前状态，写完后删除旧日志。
+ * 启动时用内存映射读取快照再按顺序重放旧日志和日志，快照里的JOB不复制也不解码，第一次读取时才从映射的文件解码，
+ * 启动时间和内存只和记录数有关。锁只在本进程内有效，每个锁是一个许可的信号量，可以在另一个线程释放。
+ */
+@Log
+public class EmbeddedJobDAO implements JobDAO, JobTemplateResolver, Closeable {
+    public static final long DEFAULT_SNAPSHOT_EVERY_RECORDS = 100000;
+    static final String SNAPSHOT_FILE = "snapshot.dat";
+    static final String JOURNAL_FILE = "journal.log";
+    static final String OLD_JOURNAL_FILE = "journal.old";
+    private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+    private static final int RECORD_CONFIG = 1;
+    private static final int RECORD_JOB = 2;
+    private static final int RECORD_STEPS = 3;
+    private static final int RECORD_DELETE = 4;
+    private static final int RECORD_KEY = 5;
+    private static final int KEY_SWEEP_INTERVAL = 1024;
+    private static final int BACKOFF_DEFAULT = 0;
+    private static final int BACKOFF_FIXED = 1;
+    private static final int BACKOFF_EXPONENTIAL = 2;
+    private static final int BACKOFF_JITTER = 3;
+    private final Path directory;
+    private final boolean syncWrites;
+    private final long snapshotEveryRecords;
+    private final JobCodec codec = new JobCodec(this);
+    private final ConcurrentHashMap<String, JobTemplate> templates = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, JobTemplate> templateVersions = new ConcurrentHashMap<>();
+    //按序列号排序，用于分页读取
+    private final ConcurrentSkipListMap<String, StoredJob> jobs = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, StoredKey> keys = new ConcurrentHashMap<>();
+    private final Striped<Semaphore> jobLocks = Striped.semaphore(1024, 1);
+    //修改时持有读锁，切换日志时持有写锁
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final AtomicLong recordsSinceSnapshot = new AtomicLong();
+    private final AtomicLong keyPuts = new AtomicLong();
+    private final AtomicBoolean snapshotting = new AtomicBoolean();
+    private final AtomicLong snapshots = new AtomicLong();
+    private final Journal journal;
+    private final ExecutorService snapshotExecutor;
+
+    private static class StoredJob {
+        //JobCodec格式，快照里的JOB指向映射的文件
+        private final ByteBuffer data;
+        private final long version;
+
+        private StoredJob(ByteBuffer data, long version) {
+            this.data = data;
+            this.version = version;
+        }
+
+        private StoredJob(byte[] data, long version) {
+            this(ByteBuffer.wrap(data), version);
+        }
+
+        private byte[] bytes() {
+            ByteBuffer buffer = data.duplicate();
+            if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.remaining() == buffer.array().length) {
+                return buffer.array();
+            }
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.get(bytes);
+            return bytes;
+        }
+    }
+
+    private static class StoredKey {
+        private final String value;
+        private final long expireAt;
+
+        private StoredKey(String value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 只在内存里，不持久化
+     */
+    public EmbeddedJobDAO() {
+        this.directory = null;
+        this.syncWrites = false;
+        this.snapshotEveryRecords = Long.MAX_VALUE;
+        this.journal = null;
+        this.snapshotExecutor = null;
+    }
+
+    public EmbeddedJobDAO(Path directory) throws IOException {
+        this(directory, true, DEFAULT_SNAPSHOT_EVERY_RECORDS);
+    }
+
+    /**
+     * @param syncWrites 为true时等日志写入磁盘后才返回
+     */
+    public EmbeddedJobDAO(Path directory, boolean syncWrites, long snapshotEveryRecords) throws IOException {
+        Preconditions.checkArgument(snapshotEveryRecords > 0, "snapshot every records must > 0");
+        this.directory = directory;
+        this.syncWrites = syncWrites;
+        this.snapshotEveryRecords = snapshotEveryRecords;
+        Files.createDirectories(directory);
+        long restored = Journal.map(directory.resolve(SNAPSHOT_FILE), this::apply);
+        //旧日志只在快照没有完成时存在，下次快照时会接上当前日志
+        long replayed = Journal.replay(directory.resolve(OLD_JOURNAL_FILE), record -> apply(ByteBuffer.wrap(record)))
+                + Journal.replay(directory.resolve(JOURNAL_FILE), record -> apply(ByteBuffer.wrap(record)));
+        recordsSinceSnapshot.set(replayed);
+        log.info(() -> "embedded job store opened: " + directory + ", snapshot records: " + restored
+                + ", journal records: " + replayed + ", jobs: " + jobs.size());
+        this.journal = new Journal(directory.resolve(JOURNAL_FILE), syncWrites);
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "job-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 保存JOB配置，已经在执行的JOB继续使用原来的配置版本；自己实现的RetryBackoff不能保存
+     */
+    public void saveJobConfig(JobConfig jobConfig, List<JobStepConfig> jobStepConfigs) {
+        JobTemplate template = JobTemplate.of(jobConfig, jobStepConfigs);
+        write(() -> putTemplate(template), configRecord(template));
+    }
+
+    private void putTemplate(JobTemplate template) {
+        templateVersions.put(versionKey(template.getJobConfig().getId(), template.getConfigVersion()), template);
+        templates.put(template.getJobConfig().getId(), template);
+    }
+
+    private static String versionKey(String jobId, long configVersion) {
+        return jobId + "@" + configVersion;
+    }
+
+    @Override
+    public JobTemplate getJobTemplate(String jobId, long configVersion) {
+        return templateVersions.get(versionKey(jobId, configVersion));
+    }
+
+    @Override
+    public JobTemplate resolve(String jobId, long configVersion) {
+        JobTemplate template = getJobTemplate(jobId, configVersion);
+        if (template == null) {
+            throw new RuntimeException("job config version not exist: " + versionKey(jobId, configVersion));
+        }
+        return template;
+    }
+
+    private JobTemplate getJobTemplate(String jobId) {
+        JobTemplate template = templates.get(jobId);
+        if (template == null) {
+            throw new RuntimeException("job config not exist: " + jobId);
+        }
+        return template;
+    }
+
+    @Override
+    public JobConfig getJobConfig(String jobId) {
+        JobTemplate template = templates.get(jobId);
+        return template == null ? null : template.getJobConfig();
+    }
+
+    @Override
+    public List<JobStepConfig> getJobConfigSteps(String jobId) {
+        return getJobTemplate(jobId).getStepConfigs();
+    }
+
+    @Override
+    public List<JobConfig> getAllJobConfig() {
+        return templates.values().stream().map(JobTemplate::getJobConfig).collect(Collectors.toList());
+    }
+
+    /**
+     * 配置保存在本地，不需要刷新
+     */
+    @Override
+    public void reloadJobConfig(String jobId) {
+    }
+
+    @Override
+    public Job newJob(String jobId, String params) {
+        return getJobTemplate(jobId).newJob(params);
+    }
+
+    @Override
+    public List<Job> newJobs(String jobId, List<String> paramsList) {
+        JobTemplate template = getJobTemplate(jobId);
+        return paramsList.stream().map(template::newJob).collect(Collectors.toList());
+    }
+
+    @Override
+    public void saveJob(Job job) {
+        byte[] data = codec.encode(job);
+        write(() -> jobs.put(job.getId(), new StoredJob(data, job.getVersion())), jobRecord(job.getId(), job.getVersion(), data));
+    }
+
+    @Override
+    public void saveJobs(List<Job> jobList) {
+        List<byte[]> records = new ArrayList<>(jobList.size());
+        Map<String, StoredJob> stored = new LinkedHashMap<>();
+        jobList.forEach(job -> {
+            byte[] data = codec.encode(job);
+            stored.put(job.getId(), new StoredJob(data, job.getVersion()));
+            records.add(jobRecord(job.getId(), job.getVersion(), data));
+        });
+        write(() -> jobs.putAll(stored), records);
+    }
+
+    @Override
+    public void saveSteps(Job job) {
+        saveJob(job);
+    }
+
+    /**
+     * 日志里只记录变化步骤的运行状态
+     */
+    @Override
+    public void saveChangedSteps(Job job, List<JobStep> steps) {
+        byte[] data = codec.encode(job);
+        BinaryOutput out = new BinaryOutput(32 + steps.size() * 8)
+                .writeByte(RECORD_STEPS)
+                .writeString(job.getId())
+                .writeVarLong(job.getVersion())
+                .writeVarLong(steps.size());
+        steps.forEach(step -> {
+            out.writeVarLong(indexOf(job, step));
+            JobCodec.writeStepState(out, step);
+        });
+        write(() -> jobs.put(job.getId(), new StoredJob(data, job.getVersion())), out.toByteArray());
+    }
+
+    private static int indexOf(Job job, JobStep step) {
+        List<JobStep> steps = job.getSteps();
+        for (int i = 0; i < steps.size(); i++) {
+            if (steps.get(i).getStepId().equals(step.getStepId())) {
+                return i;
+            }
+        }
+        throw new RuntimeException("step not exit.");
+    }
+
+    @Override
+    public Job getJob(String jobId) {
+        StoredJob stored = jobs.get(jobId);
+        return stored == null ? null : codec.decode(stored.data);
+    }
+
+    @Override
+    public long getJobVersion(String jobId) {
+        StoredJob stored = jobs.get(jobId);
+        return stored == null ? -1 : stored.version;
+    }
+
+    @Override
+    public List<Job> findAll() {
+        return jobs.values().stream().map(stored -> codec.decode(stored.data)).collect(Collectors.toList());
+    }
+
+    /**
+     * 只解码这一页的JOB
+     */
+    @Override
+    public List<Job> findPage(String afterJobSerialId, int limit) {
+        Map<String, StoredJob> tail = afterJobSerialId == null ? jobs : jobs.tailMap(afterJobSerialId, false);
+        return tail.values().stream().limit(limit).map(stored -> codec.decode(stored.data)).collect(Collectors.toList());
+    }
+
+    @Override
+    public List<JobSummary> findSummaryPage(JobSummaryQuery query, String afterJobSerialId, int limit) {
+        Map<String, StoredJob> tail = afterJobSerialId == null ? jobs : jobs.tailMap(afterJobSerialId, false);
+        return tail.values().stream()
+                .map(stored -> codec.decodeSummary(stored.data, query))
+                .filter(Objects::nonNull)
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 直接遍历，遍历期间的修改可能读到也可能读不到
+     */
+    @Override
+    public void forEachSummary(JobSummaryQuery query, Consumer<JobSummary> consumer) {
+        jobs.values().forEach(stored -> {
+            JobSummary summary = codec.decodeSummary(stored.data, query);
+            if (summary != null) {
+                consumer.accept(summary);
+            }
+        });
+    }
+
+    @Override
+    public void deleteJobById(String jobId) {
+        write(() -> jobs.remove(jobId), new BinaryOutput(48).writeByte(RECORD_DELETE).writeString(jobId).toByteArray());
+    }
+
+    @Override
+    public void lock(String jobId) {
+        jobLocks.get(jobId).acquireUninterruptibly();
+    }
+
+    @Override
+    public void releaseLock(String jobId) {
+        jobLocks.get(jobId).release();
+    }
+
+    @Override
+    public void putKey(String key, String value, int expireInMs) {
+        long expireAt = System.currentTimeMillis() + expireInMs;
+        write(() -> keys.put(key, new StoredKey(value, expireAt)), keyRecord(key, value, expireAt));
+        sweepKeys(1);
+    }
+
+    @Override
+    public void putKeys(Map<String, String> keyValues, int expireInMs) {
+        long expireAt = System.currentTimeMillis() + expireInMs;
+        List<byte[]> records = new ArrayList<>(keyValues.size());
+        keyValues.forEach((key, value) -> records.add(keyRecord(key, value, expireAt)));
+        write(() -> keyValues.forEach((key, value) -> keys.put(key, new StoredKey(value, expireAt))), records);
+        sweepKeys(keyValues.size());
+    }
+
+    @Override
+    public String getKey(String key) {
+        StoredKey stored = keys.get(key);
+        if (stored == null) {
+            return null;
+        }
+        if (stored.expireAt <= System.currentTimeMillis()) {
+            keys.remove(key, stored);
+            return null;
+        }
+        return stored.value;
+    }
+
+    @Override
+    public Map<String, String> getKeys(Collection<String> keyList) {
+        Map<String, String> values = new HashMap<>();
+        keyList.forEach(key -> {
+            String value = getKey(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        });
+        return values;
+    }
+
+    /**
+     * 每写入一定数量的Key清理一次过期的，过期的Key不需要写日志，重放时会被过滤
+     */
+    private void sweepKeys(int count) {
+        long before = keyPuts.getAndAdd(count);
+        if (before / KEY_SWEEP_INTERVAL != (before + count) / KEY_SWEEP_INTERVAL) {
+            long now = System.currentTimeMillis();
+            keys.entrySet().removeIf(entry -> entry.getValue().expireAt <= now);
+        }
+    }
+
+    private void write(Runnable apply, byte[] record) {
+        write(apply, Collections.singletonList(record));
+    }
+
+    /**
+     * 先排队日志再改内存，日志已经失败或者关闭时内存不变
+     */
+    private void write(Runnable apply, List<byte[]> records) {
+        CompletableFuture<Void> written = null;
+        stateLock.readLock().lock();
+        try {
+            if (journal != null) {
+                for (byte[] record : records) {
+                    written = journal.append(record);
+                }
+            }
+            apply.run();
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (journal == null) {
+            return;
+        }
+        if (syncWrites && written != null) {
+            try {
+                written.join();
+            } catch (CompletionException e) {
+                throw new RuntimeException("write journal failed", e.getCause());
+            }
+        }
+        if (recordsSinceSnapshot.addAndGet(records.size()) >= snapshotEveryRecords && snapshotting.compareAndSet(false, true)) {
+            try {
+                snapshotExecutor.execute(() -> {
+                    try {
+                        writeSnapshot();
+                    } catch (RuntimeException e) {
+                        log.log(Level.SEVERE, "write snapshot failed", e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //已经关闭
+                snapshotting.set(false);
+            }
+        }
+    }
+
+    /**
+     * 在调用线程写一次快照，已经在写时直接返回
+     */
+    public void snapshot() {
+        if (journal == null || !snapshotting.compareAndSet(false, true)) {
+            return;
+        }
+        writeSnapshot();
+    }
+
+    /**
+     * 只在切换日志时短暂阻塞修改，写快照期间的修改写到新日志。
+     * 快照不是某一时刻的状态，但每条数据都不早于切换日志的时候，日志记录都是覆盖写，之后重放新日志结果和内存一样；
+     * 快照替换后、删除旧日志前崩溃时会先重放旧日志再重放新日志，结果也一样
+     */
+    private void writeSnapshot() {
+        try {
+            Path oldJournal = directory.resolve(OLD_JOURNAL_FILE);
+            stateLock.writeLock().lock();
+            try {
+                journal.flush();
+                journal.rotate(oldJournal);
+                recordsSinceSnapshot.set(0);
+            } finally {
+                stateLock.writeLock().unlock();
+            }
+            Path temp = directory.resolve(SNAPSHOT_TEMP_FILE);
+            Journal.writeAll(temp, snapshotRecords());
+            Files.move(temp, directory.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(oldJournal);
+            snapshots.incrementAndGet();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            snapshotting.set(false);
+        }
+    }
+
+    /**
+     * 边遍历边生成记录，不复制全部数据
+     */
+    private Iterable<byte[]> snapshotRecords() {
+        long now = System.currentTimeMillis();
+        //先写所有版本，再写当前版本，重放后当前版本正确
+        return Iterables.concat(
+                Iterables.transform(templateVersions.values(), EmbeddedJobDAO::configRecord),
+                Iterables.transform(templates.values(), EmbeddedJobDAO::configRecord),
+                Iterables.transform(jobs.entrySet(), entry -> jobRecord(entry.getKey(), entry.getValue().version, entry.getValue().bytes())),
+                Iterables.transform(Iterables.filter(keys.entrySet(), entry -> entry.getValue().expireAt > now),
+                        entry -> keyRecord(entry.getKey(), entry.getValue().value, entry.getValue().expireAt)));
+    }
+
+    private static byte[] configRecord(JobTemplate template) {
+        JobConfig jobConfig = template.getJobConfig();
+        BinaryOutput out = new BinaryOutput(256)
+                .writeByte(RECORD_CONFIG)
+                .writeString(jobConfig.getId())
+                .writeString(jobConfig.getName())
+                .writeVarLong(template.getStepConfigs().size());
+        template.getStepConfigs().forEach(stepConfig -> {
+            out.writeString(stepConfig.getJobId())
+                    .writeString(stepConfig.getStepId())
+                    .writeString(stepConfig.getStepName())
+                    .writeString(stepConfig.getMethodName())
+                    //delay可以为空，加1保存
+                    .writeVarLong(stepConfig.getDelay() == null ? 0 : stepConfig.getDelay() + 1L)
+                    .writeVarLong(stepConfig.getMaxTry())
+                    .writeVarLong(stepConfig.getTimeout());
+            if (stepConfig.getPreJobs() == null) {
+                out.writeVarLong(0);
+            } else {
+                out.writeVarLong(stepConfig.getPreJobs().size() + 1L);
+                stepConfig.getPreJobs().forEach(out::writeString);
+            }
+        });
+        out.writeVarLong(jobConfig.getPriority() & 0xFFFFFFFFL);
+        template.getStepConfigs().forEach(stepConfig -> writeBackoff(out, stepConfig.getRetryBackoff()));
+        return out.toByteArray();
+    }
+
+    private static JobTemplate readConfig(BinaryInput in) {
+        JobConfig jobConfig = JobConfig.builder().id(in.readString()).name(in.readString()).build();
+        int stepCount = in.readVarInt();
+        List<JobStepConfig> stepConfigs = new ArrayList<>(stepCount);
+        for (int i = 0; i < stepCount; i++) {
+            JobStepConfig stepConfig = JobStepConfig.builder()
+                    .jobId(in.readString())
+                    .stepId(in.readString())
+                    .stepName(in.readString())
+                    .methodName(in.readString())
+                    .build();
+            long delay = in.readVarLong();
+            stepConfig.setDelay(delay == 0 ? null : (int) (delay - 1));
+            stepConfig.setMaxTry(in.readVarInt());
+            stepConfig.setTimeout(in.readVarInt());
+            int preJobCount = in.readVarInt() - 1;
+            if (preJobCount >= 0) {
+                Set<String> preJobs = new LinkedHashSet<>();
+                for (int j = 0; j < preJobCount; j++) {
+                    preJobs.add(in.readString());
+                }
+                stepConfig.setPreJobs(preJobs);
+            }
+            stepConfigs.add(stepConfig);
+        }
+        //之前的版本没有保存优先级和重试等待
+        if (in.hasRemaining()) {
+            jobConfig.setPriority(in.readVarInt());
+        }
+        if (in.hasRemaining()) {
+            stepConfigs.forEach(stepConfig -> stepConfig.setRetryBackoff(readBackoff(in)));
+        }
+        return JobTemplate.of(jobConfig, stepConfigs);
+    }
+
+    private static void writeBackoff(BinaryOutput out, RetryBackoff retryBackoff) {
+        if (retryBackoff == null) {
+            out.writeByte(BACKOFF_DEFAULT);
+        } else if (retryBackoff instanceof FixedBackoff) {
+            out.writeByte(BACKOFF_FIXED).writeVarLong(((FixedBackoff) retryBackoff).getDelayMs());
+        } else if (retryBackoff instanceof ExponentialBackoff) {
+            ExponentialBackoff exponential = (ExponentialBackoff) retryBackoff;
+            out.writeByte(BACKOFF_EXPONENTIAL)
+                    .writeVarLong(exponential.getBaseMs())
+                    .writeFixedLong(Double.doubleToLongBits(exponential.getMultiplier()))
+                    .writeVarLong(exponential.getMaxMs());
+        } else if (retryBackoff instanceof JitterBackoff) {
+            JitterBackoff jitter = (JitterBackoff) retryBackoff;
+            out.writeByte(BACKOFF_JITTER).writeVarLong(jitter.getBaseMs()).writeVarLong(jitter.getMaxMs());
+        } else {
+            throw new IllegalArgumentException("retry backoff can not be saved: " + retryBackoff.getClass().getName());
+        }
+    }
+
+    private static RetryBackoff readBackoff(BinaryInput in) {
+        int type = in.readByte();
+        switch (type) {
+            case BACKOFF_DEFAULT:
+                return null;
+            case BACKOFF_FIXED:
+                return new FixedBackoff(in.readVarLong());
+            case BACKOFF_EXPONENTIAL:
+                return new ExponentialBackoff(in.readVarLong(), Double.longBitsToDouble(in.readFixedLong()), in.readVarLong());
+            case BACKOFF_JITTER:
+                return new JitterBackoff(in.readVarLong(), in.readVarLong());
+            default:
+                throw new IllegalStateException("unknown retry backoff: " + type);
+        }
+    }
+
+    /**
+     * 版本号单独保存，读取时不需要解码JOB
+     */
+    private static byte[] jobRecord(String id, long version, byte[] data) {
+        return new BinaryOutput(data.length + 48).writeByte(RECORD_JOB).writeString(id).writeVarLong(version)
+                .writeBytes(data).toByteArray();
+    }
+
+    private static byte[] keyRecord(String key, String value, long expireAt) {
+        return new BinaryOutput(64).writeByte(RECORD_KEY).writeString(key).writeString(value).writeVarLong(expireAt).toByteArray();
+    }
+
+    /**
+     * 重放快照和日志里的一条记录，JOB只保存内容的引用
+     */
+    private void apply(ByteBuffer record) {
+        BinaryInput in = new BinaryInput(record);
+        int type = in.readByte();
+        switch (type) {
+            case RECORD_CONFIG:
+                putTemplate(readConfig(in));
+                break;
+            case RECORD_JOB: {
+                String id = in.readString();
+                long version = in.readVarLong();
+                jobs.put(id, new StoredJob(in.readSlice(), version));
+                break;
+            }
+            case RECORD_STEPS:
+                applySteps(in);
+                break;
+            case RECORD_DELETE:
+                jobs.remove(in.readString());
+                break;
+            case RECORD_KEY: {
+                String key = in.readString();
+                String value = in.readString();
+                long expireAt = in.readVarLong();
+                if (expireAt > System.currentTimeMillis()) {
+                    keys.put(key, new StoredKey(value, expireAt));
+                }
+                break;
+            }
+            default:
+                throw new IllegalStateException("unknown journal record: " + type);
+        }
+    }
+
+    private void applySteps(BinaryInput in) {
+        String id = in.readString();
+        long version = in.readVarLong();
+        StoredJob stored = jobs.get(id);
+        if (stored == null) {
+            return;
+        }
+        Job job = codec.decode(stored.data);
+        List<JobStep> steps = job.getSteps();
+        int count = in.readVarInt();
+        for (int i = 0; i < count; i++) {
+            JobCodec.readStepState(in, steps.get(in.readVarInt()));
+        }
+        job.setVersion(version);
+        jobs.put(id, new StoredJob(codec.encode(job), version));
+    }
+
+    public int getJobCount() {
+        return jobs.size();
+    }
+
+    public long getSnapshots() {
+        return snapshots.get();
+    }
+
+    /**
+     * 日志写入的记录数和批次数，两者的比例是组提交的平均批量大小
+     */
+    public long getJournalRecords() {
+        return journal == null ? 0 : journal.getRecords();
+    }
+
+    public long getJournalBatches() {
+        return journal == null ? 0 : journal.getBatches();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (snapshotExecutor != null) {
+            //等正在写的快照完成
+            snapshotExecutor.shutdown();
+            try {
+                snapshotExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (journal != null) {
+            journal.close();
+        }
+    }
+}
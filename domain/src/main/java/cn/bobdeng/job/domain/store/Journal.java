@@ -0,0 +1,393 @@
+package cn.bobdeng.job.domain.store;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.java.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * 追加写入的日志文件，每条记录：长度(4字节) | 内容 | CRC32(4字节)。
+ * 一个线程批量写入排队的记录，每批只force一次（组提交），写入后完成对应的Future。
+ * 一批写入失败时截掉写了一半的内容，截不掉时日志不再接受写入，避免后面的记录跟在损坏的记录后面，重放时被一起截掉。
+ */
+@Log
+class Journal implements Closeable {
+    static final int MAX_BATCH = 1024;
+    //一次映射的最大长度，更大的文件分段映射
+    static final long MAP_CHUNK = Integer.MAX_VALUE;
+    private static final int FRAME_OVERHEAD = 8;
+    private static final int READ_BUFFER = 64 * 1024;
+    private final Path file;
+    //切换日志时替换，切换时没有正在写入的记录
+    private volatile FileChannel channel;
+    private final boolean fsync;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile Throwable failure;
+    private final LongAdder records = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    private static class Entry {
+        //为空时只等待之前的记录写入
+        private final byte[] payload;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Entry(byte[] payload) {
+            this.payload = payload;
+        }
+    }
+
+    Journal(Path file, boolean fsync) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        this.channel.position(channel.size());
+        this.fsync = fsync;
+        this.writer = new Thread(this::run, "job-journal-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    CompletableFuture<Void> append(byte[] payload) {
+        Preconditions.checkState(running, "journal closed");
+        if (failure != null) {
+            throw new IllegalStateException("journal failed", failure);
+        }
+        Entry entry = new Entry(payload);
+        queue.add(entry);
+        //检查之后close了，写入线程可能已经退出，还在队列里的记录不会再写
+        if (!running && queue.remove(entry)) {
+            entry.future.completeExceptionally(new IllegalStateException("journal closed"));
+        }
+        return entry.future;
+    }
+
+    /**
+     * 等待已经排队的记录全部写入
+     */
+    void flush() {
+        append(null).join();
+    }
+
+    /**
+     * 清空日志，调用前需要保证没有正在写入的记录
+     */
+    void truncate() throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        if (fsync) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * 把当前日志移到to，之后的记录写到新的日志文件；to已经存在时（上次快照没有完成）接到to后面。
+     * 调用前需要保证没有正在写入的记录
+     */
+    void rotate(Path to) throws IOException {
+        if (Files.exists(to)) {
+            try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel target = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                long size = source.size();
+                long position = 0;
+                while (position < size) {
+                    position += source.transferTo(position, size - position, target);
+                }
+                target.force(true);
+            }
+            truncate();
+            return;
+        }
+        channel.force(true);
+        Files.move(file, to, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel old = channel;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        old.close();
+    }
+
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<Entry> batch) {
+        if (failure != null) {
+            batch.forEach(entry -> entry.future.completeExceptionally(failure));
+            return;
+        }
+        long start = -1;
+        try {
+            start = channel.position();
+            int size = 0;
+            for (Entry entry : batch) {
+                size += entry.payload == null ? 0 : entry.payload.length + FRAME_OVERHEAD;
+            }
+            if (size > 0) {
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                for (Entry entry : batch) {
+                    if (entry.payload != null) {
+                        frame(buffer, entry.payload);
+                        records.increment();
+                    }
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                if (fsync) {
+                    channel.force(false);
+                }
+                batches.increment();
+            }
+            batch.forEach(entry -> entry.future.complete(null));
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.SEVERE, "write journal failed", e);
+            discard(start, e);
+            batch.forEach(entry -> entry.future.completeExceptionally(e));
+        }
+    }
+
+    /**
+     * 截掉失败的一批写了一半的内容
+     */
+    private void discard(long start, Throwable cause) {
+        try {
+            if (start < 0) {
+                throw new IOException("journal position unknown");
+            }
+            channel.truncate(start);
+            channel.position(start);
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.SEVERE, "discard broken journal batch failed, journal stops writing", e);
+            failure = cause;
+        }
+    }
+
+    static void frame(ByteBuffer buffer, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        buffer.putInt(payload.length).put(payload).putInt((int) crc.getValue());
+    }
+
+    /**
+     * 按顺序一条一条读取文件里的记录，只缓存正在读的记录。
+     * 遇到不完整或者校验失败的记录时停止，之后的内容被截掉
+     *
+     * @return 读取的记录数
+     */
+    static long replay(Path file, Consumer<byte[]> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER);
+            buffer.flip();
+            long count = 0;
+            long valid = 0;
+            CRC32 crc = new CRC32();
+            while ((buffer = fill(channel, buffer, FRAME_OVERHEAD)) != null) {
+                int length = buffer.getInt(buffer.position());
+                //长度超过文件剩下的内容时是写了一半的记录
+                if (length < 0 || length > size - valid - FRAME_OVERHEAD || length > Integer.MAX_VALUE - FRAME_OVERHEAD
+                        || (buffer = fill(channel, buffer, length + FRAME_OVERHEAD)) == null) {
+                    break;
+                }
+                byte[] payload = new byte[length];
+                buffer.position(buffer.position() + 4);
+                buffer.get(payload);
+                int expected = buffer.getInt();
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expected) {
+                    break;
+                }
+                consumer.accept(payload);
+                count++;
+                valid += length + FRAME_OVERHEAD;
+            }
+            if (valid < size) {
+                long at = valid;
+                log.warning(() -> "truncate broken journal tail: " + file + ", at " + at);
+                channel.truncate(valid);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 从文件继续读取，直到buffer里有needed个字节，放不下时换一个更大的buffer
+     *
+     * @return 可以读取的buffer，文件结束时还不够needed个字节返回null
+     */
+    private static ByteBuffer fill(FileChannel channel, ByteBuffer buffer, int needed) throws IOException {
+        if (buffer.remaining() >= needed) {
+            return buffer;
+        }
+        ByteBuffer target = buffer.capacity() >= needed ? buffer.compact() : ByteBuffer.allocate(needed).put(buffer);
+        while (target.position() < needed && channel.read(target) >= 0) {
+            //读到足够为止
+        }
+        target.flip();
+        return target.remaining() >= needed ? target : null;
+    }
+
+    /**
+     * 用内存映射按顺序读取只读文件里的记录，内容不复制，交给consumer的ByteBuffer指向映射的文件，
+     * 文件被替换后映射仍然有效。超过MAP_CHUNK的文件分段映射，每段从一条记录的开头开始。
+     * 遇到不完整或者校验失败的记录时停止
+     *
+     * @return 读取的记录数
+     */
+    static long map(Path file, Consumer<ByteBuffer> consumer) throws IOException {
+        return map(file, consumer, MAP_CHUNK);
+    }
+
+    static long map(Path file, Consumer<ByteBuffer> consumer, long chunkSize) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long count = 0;
+        long position = 0;
+        long size;
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            size = channel.size();
+            long mapSize = chunkSize;
+            while (size - position >= FRAME_OVERHEAD) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, mapSize));
+                boolean broken = false;
+                while (buffer.remaining() >= FRAME_OVERHEAD) {
+                    int length = buffer.getInt(buffer.position());
+                    if (length < 0 || length > size - position - buffer.position() - FRAME_OVERHEAD
+                            || length > Integer.MAX_VALUE - FRAME_OVERHEAD) {
+                        broken = true;
+                        break;
+                    }
+                    if (buffer.remaining() < length + FRAME_OVERHEAD) {
+                        //记录跨过了这一段的结尾，从它开始映射下一段
+                        break;
+                    }
+                    buffer.position(buffer.position() + 4);
+                    ByteBuffer payload = buffer.slice();
+                    payload.limit(length);
+                    crc.reset();
+                    crc.update(payload.duplicate());
+                    buffer.position(buffer.position() + length);
+                    if ((int) crc.getValue() != buffer.getInt()) {
+                        buffer.position(buffer.position() - length - FRAME_OVERHEAD);
+                        broken = true;
+                        break;
+                    }
+                    consumer.accept(payload);
+                    count++;
+                }
+                if (broken) {
+                    position += buffer.position();
+                    break;
+                }
+                //一条记录比一段还长时只映射这条记录
+                mapSize = buffer.position() == 0 ? buffer.getInt(0) + FRAME_OVERHEAD : chunkSize;
+                position += buffer.position();
+            }
+        }
+        if (position < size) {
+            long at = position;
+            log.warning(() -> "ignore broken records: " + file + ", at " + at);
+        }
+        return count;
+    }
+
+    static void writeAll(Path file, Iterable<byte[]> payloads) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (byte[] payload : payloads) {
+                if (buffer.remaining() < payload.length + FRAME_OVERHEAD) {
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    buffer.clear();
+                }
+                if (buffer.capacity() < payload.length + FRAME_OVERHEAD) {
+                    ByteBuffer large = ByteBuffer.allocate(payload.length + FRAME_OVERHEAD);
+                    frame(large, payload);
+                    large.flip();
+                    writeFully(channel, large);
+                } else {
+                    frame(buffer, payload);
+                }
+            }
+            buffer.flip();
+            writeFully(channel, buffer);
+            channel.force(true);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    long getRecords() {
+        return records.sum();
+    }
+
+    long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        //不能中断写入线程，中断会关闭FileChannel
+        running = false;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        //写入线程退出后才排队的记录，不完成的话flush和同步写入的调用方会一直等
+        Entry entry;
+        while ((entry = queue.poll()) != null) {
+            entry.future.completeExceptionally(new IllegalStateException("journal closed"));
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,54 @@
+package domain.benchmark;
+
+import cn.bobdeng.job.domain.entity.StepInterceptor;
+import cn.bobdeng.job.domain.interceptor.StepInterceptorIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 拦截器查找：原来的全表扫描 vs 索引
+ * 运行：java -cp target/test-classes:依赖 org.openjdk.jmh.Main InterceptorLookupBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterceptorLookupBenchmark {
+    @Param({"10000"})
+    private int size;
+    private List<StepInterceptor> interceptors;
+    private StepInterceptorIndex index;
+    private String jobId;
+    private String stepId;
+
+    @Setup
+    public void setUp() {
+        interceptors = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            interceptors.add(StepInterceptor.of("job_" + (i / 10), "step_" + (i % 10)));
+        }
+        index = StepInterceptorIndex.of(interceptors, 1);
+        //查找最后一个，扫描的最坏情况
+        jobId = "job_" + ((size - 1) / 10);
+        stepId = "step_" + ((size - 1) % 10);
+    }
+
+    @Benchmark
+    public Optional<StepInterceptor> scan() {
+        return interceptors.stream()
+                .filter(stepInterceptor -> stepInterceptor.getJobId().equals(jobId))
+                .filter(stepInterceptor -> stepInterceptor.getJobStepId().equals(stepId))
+                .findAny();
+    }
+
+    @Benchmark
+    public StepInterceptor index() {
+        return index.get(jobId, stepId);
+    }
+}
@@ -0,0 +1,84 @@
+package domain.benchmark;
+
+import cn.bobdeng.job.domain.codec.JobCodec;
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.entity.JobConfig;
+import cn.bobdeng.job.domain.entity.JobStepConfig;
+import cn.bobdeng.job.domain.entity.JobTemplate;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JOB序列化：JSON（保存所有字段） vs JobCodec（只保存运行状态），字节数的比较在JobCodecTest里
+ * 运行：java -cp target/test-classes:依赖 org.openjdk.jmh.Main JobCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobCodecBenchmark {
+    @Param({"10", "100"})
+    private int stepCount;
+    private Job job;
+    private JobCodec codec;
+    private ObjectMapper objectMapper;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<JobStepConfig> stepConfigs = new ArrayList<>(stepCount);
+        for (int i = 0; i < stepCount; i++) {
+            stepConfigs.add(JobStepConfig.builder()
+                    .jobId("order_job")
+                    .stepId("step_" + i)
+                    .stepName("step name " + i)
+                    .methodName("cn.bobdeng.order.OrderService.step" + i)
+                    .delay(0)
+                    .maxTry(3)
+                    .preJobs(i == 0 ? null : Collections.singleton("step_" + (i - 1)))
+                    .build());
+        }
+        JobTemplate template = JobTemplate.of(JobConfig.builder().id("order_job").name("order job").build(), stepConfigs);
+        job = template.newJob("{\"orderId\":123456}");
+        job.updateStepRuning(job.getSteps().get(0));
+        codec = new JobCodec((jobId, configVersion) -> template);
+        //只按字段序列化，不读取Job里计算出来的属性
+        objectMapper = new ObjectMapper()
+                .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY)
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        json = objectMapper.writeValueAsBytes(job);
+        binary = codec.encode(job);
+    }
+
+    @Benchmark
+    public byte[] encodeJson() throws Exception {
+        return objectMapper.writeValueAsBytes(job);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return codec.encode(job);
+    }
+
+    @Benchmark
+    public Job decodeJson() throws Exception {
+        return objectMapper.readValue(json, Job.class);
+    }
+
+    @Benchmark
+    public Job decodeBinary() {
+        return codec.decode(binary);
+    }
+}
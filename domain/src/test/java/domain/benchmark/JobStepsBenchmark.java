@@ -0,0 +1,148 @@
+package domain.benchmark;
+
+import cn.bobdeng.job.domain.entity.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * 一个JOB从开始到全部步骤成功，每个结果都走一遍onJobResult的判断
+ * legacy是原来每次遍历步骤的实现，compiled是编译后的步骤依赖图
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JobStepsBenchmark {
+    @Param({"20", "200"})
+    private int stepCount;
+    private JobTemplate jobTemplate;
+
+    @Setup
+    public void setUp() {
+        //每层10个步骤，每个步骤依赖上一层的所有步骤
+        int width = 10;
+        List<JobStepConfig> stepConfigs = new ArrayList<>();
+        for (int i = 0; i < stepCount; i++) {
+            int layer = i / width;
+            Set<String> preJobs = null;
+            if (layer > 0) {
+                preJobs = new HashSet<>();
+                for (int j = (layer - 1) * width; j < layer * width; j++) {
+                    preJobs.add("step_" + j);
+                }
+            }
+            stepConfigs.add(JobStepConfig.builder()
+                    .stepId("step_" + i)
+                    .methodName("method_" + (i % width))
+                    .delay(0)
+                    .maxTry(3)
+                    .preJobs(preJobs)
+                    .build());
+        }
+        jobTemplate = JobTemplate.of(JobConfig.builder().id("job_id").name("job_name").build(), stepConfigs);
+    }
+
+    @Benchmark
+    public int compiled() {
+        Job job = jobTemplate.newJob("{}");
+        List<JobStep> running = new ArrayList<>();
+        int dispatched = 0;
+        job.runNextSteps(step -> {
+            job.updateStepRuning(step);
+            running.add(step);
+        });
+        while (!running.isEmpty()) {
+            JobStep step = running.remove(running.size() - 1);
+            dispatched++;
+            job.updateStepResult(JobResult.builder().jobStepId(step.getStepId()).success(true).build());
+            if (!job.isOver() && job.getExecutingStepCount() == 0) {
+                job.runNextSteps(next -> {
+                    job.updateStepRuning(next);
+                    running.add(next);
+                });
+            }
+        }
+        return dispatched;
+    }
+
+    @Benchmark
+    public int legacy() {
+        Job job = jobTemplate.newJob("{}");
+        List<JobStep> steps = job.getSteps();
+        List<JobStep> running = new ArrayList<>();
+        int dispatched = 0;
+        legacyRunNextSteps(steps, step -> {
+            legacyUpdateStepRunning(step);
+            running.add(step);
+        });
+        while (!running.isEmpty()) {
+            JobStep step = running.remove(running.size() - 1);
+            dispatched++;
+            legacyUpdateStepResult(steps, step.getStepId(), true);
+            if (!legacyIsOver(steps) && legacyExecutingStepCount(steps) == 0) {
+                legacyRunNextSteps(steps, next -> {
+                    legacyUpdateStepRunning(next);
+                    running.add(next);
+                });
+            }
+        }
+        return dispatched;
+    }
+
+    private static void legacyRunNextSteps(List<JobStep> steps, Consumer<JobStep> consumer) {
+        Set<String> overSteps = steps.stream()
+                .filter(JobStep::isSuccess)
+                .map(JobStep::getStepId)
+                .collect(Collectors.toSet());
+        steps.stream()
+                .filter(jobStep -> legacyIsMyTurn(jobStep, overSteps))
+                .forEach(consumer);
+    }
+
+    private static boolean legacyIsMyTurn(JobStep jobStep, Set<String> overSteps) {
+        if (jobStep.isSuccess() || jobStep.isExecuting()) {
+            return false;
+        }
+        if (jobStep.getTryTimes() >= jobStep.getMaxTry()) {
+            return false;
+        }
+        if (jobStep.getPreJobs() == null) {
+            return true;
+        }
+        return !jobStep.getPreJobs().stream()
+                .filter(jobStepId -> !overSteps.contains(jobStepId))
+                .findAny()
+                .isPresent();
+    }
+
+    private static void legacyUpdateStepRunning(JobStep step) {
+        step.setTryTimes(step.getTryTimes() + 1);
+        step.setExecuting(true);
+    }
+
+    private static void legacyUpdateStepResult(List<JobStep> steps, String stepId, boolean success) {
+        steps.stream()
+                .filter(jobExecuting -> jobExecuting.getStepId().equals(stepId))
+                .findFirst()
+                .ifPresent(jobExecuting -> jobExecuting.setSuccess(success).setExecuting(false));
+    }
+
+    private static boolean legacyIsOver(List<JobStep> steps) {
+        return !steps.stream()
+                .filter(jobStep -> !(jobStep.isSuccess() || jobStep.getTryTimes() >= jobStep.getMaxTry()))
+                .findFirst()
+                .isPresent();
+    }
+
+    private static int legacyExecutingStepCount(List<JobStep> steps) {
+        return (int) steps.stream()
+                .filter(JobStep::isExecuting)
+                .count();
+    }
+}
@@ -0,0 +1,50 @@
+package domain.benchmark;
+
+import cn.bobdeng.job.domain.job.RepeatHashMode;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 重复JOB的Key：原来拼接字符串后MD5 vs 流式MD5 vs 流式murmur3
+ * 运行：java -cp target/test-classes:依赖 org.openjdk.jmh.Main RepeatHashBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RepeatHashBenchmark {
+    @Param({"1024", "262144"})
+    private int paramsLength;
+    private String jobId;
+    private String params;
+
+    @Setup
+    public void setUp() {
+        jobId = "job_id";
+        params = "{\"data\":\"" + Strings.repeat("x", paramsLength) + "\"}";
+    }
+
+    @Benchmark
+    public String legacy() {
+        //原来每次启动计算两次
+        Hashing.md5().hashString(jobId + params, Charset.forName("utf-8")).toString();
+        return Hashing.md5().hashString(jobId + params, Charset.forName("utf-8")).toString();
+    }
+
+    @Benchmark
+    public List<String> md5() {
+        return RepeatHashMode.MD5.keysOf(jobId, params);
+    }
+
+    @Benchmark
+    public List<String> murmur3() {
+        return RepeatHashMode.MURMUR3.keysOf(jobId, params);
+    }
+}
@@ -0,0 +1,118 @@
+package domain.codec;
+
+import cn.bobdeng.job.domain.codec.JobCodec;
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.entity.JobConfig;
+import cn.bobdeng.job.domain.entity.JobResult;
+import cn.bobdeng.job.domain.entity.JobStepConfig;
+import cn.bobdeng.job.domain.entity.JobTemplate;
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class JobCodecTest {
+    private static final String JOB_ID = "job_id";
+    private static final String JOB_NAME = "job_name";
+    private static final String PARAMS = "{\"name\":\"参数\"}";
+    private static final String STEP_1 = "step_1";
+    private static final String STEP_2 = "step_2";
+    private static final String STEP_3 = "step_3";
+    private final JobTemplate template = JobTemplate.of(JobConfig.builder().id(JOB_ID).name(JOB_NAME).build(), Arrays.asList(
+            stepConfig(STEP_1, null),
+            stepConfig(STEP_2, null),
+            stepConfig(STEP_3, Stream.of(STEP_1, STEP_2).collect(Collectors.toSet()))));
+    private final JobCodec codec = new JobCodec((jobId, configVersion) -> {
+        assertEquals(jobId, JOB_ID);
+        assertEquals(configVersion, template.getConfigVersion());
+        return template;
+    });
+
+    private static JobStepConfig stepConfig(String stepId, java.util.Set<String> preJobs) {
+        return JobStepConfig.builder()
+                .jobId(JOB_ID)
+                .stepId(stepId)
+                .stepName("name_" + stepId)
+                .methodName("method_" + stepId)
+                .delay(0)
+                .maxTry(3)
+                .preJobs(preJobs)
+                .build();
+    }
+
+    @Test
+    public void roundTrip() {
+        Job job = template.newJob(PARAMS);
+        job.updateStepRuning(job.getJobStep(STEP_1));
+        job.updateStepRuning(job.getJobStep(STEP_2));
+        job.getJobStep(STEP_2).setDispatchTime(System.currentTimeMillis() + 1000).setSent(true);
+        job.updateStepResult(JobResult.builder().jobStepId(STEP_1).success(true).build());
+        job.setVersion(5);
+
+        Job decoded = codec.decode(codec.encode(job));
+
+        assertEquals(decoded.getId(), job.getId());
+        assertEquals(decoded.getParams(), PARAMS);
+        assertEquals(decoded.getBeginTime(), job.getBeginTime());
+        assertEquals(decoded.getVersion(), 5);
+        assertEquals(decoded.getSteps(), job.getSteps());
+        assertEquals(decoded.getExecutingStepCount(), 1);
+        assertFalse(decoded.isOver());
+    }
+
+    @Test
+    public void encode_smallerThanJson() throws Exception {
+        Job job = template.newJob(PARAMS);
+        job.updateStepRuning(job.getJobStep(STEP_1));
+        //和JobCodecBenchmark一样只按字段序列化
+        ObjectMapper objectMapper = new ObjectMapper()
+                .setVisibility(PropertyAccessor.ALL, JsonAutoDetect.Visibility.NONE)
+                .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+        byte[] json = objectMapper.writeValueAsBytes(job);
+        byte[] binary = codec.encode(job);
+
+        //步骤配置从模板读取，只保存运行状态
+        assertTrue(binary.length * 4 < json.length);
+    }
+
+    @Test
+    public void roundTrip_nonUuidSerialAndNullParams() {
+        Job job = template.newJob("serial-1", null, 1000);
+
+        Job decoded = codec.decode(codec.encode(job));
+
+        assertEquals(decoded.getId(), "serial-1");
+        assertNull(decoded.getParams());
+    }
+
+    @Test
+    public void encode_size() {
+        Job job = template.newJob(PARAMS);
+
+        //除了参数，流水号16字节，配置版本8字节，每个步骤3字节
+        assertTrue(codec.encode(job).length < 64 + PARAMS.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    public void configVersion() {
+        JobTemplate same = JobTemplate.of(JobConfig.builder().id(JOB_ID).name(JOB_NAME).build(), template.getStepConfigs());
+        JobTemplate changed = JobTemplate.of(JobConfig.builder().id(JOB_ID).name(JOB_NAME).build(),
+                Collections.singletonList(stepConfig(STEP_1, null)));
+
+        assertEquals(same.getConfigVersion(), template.getConfigVersion());
+        assertNotEquals(changed.getConfigVersion(), template.getConfigVersion());
+        assertEquals(template.newJob(PARAMS).getConfigVersion(), template.getConfigVersion());
+    }
+}
@@ -53,6 +53,13 @@ public class JobTest {
         assertTrue(jobStep2.getPreJobs().contains(STEP_1));
     }
 
+    @Test
+    public void findJobStep() {
+        Job job = createNewJob();
+        assertSame(job.findJobStep(STEP_2), job.getSteps().get(1));
+        assertNull(job.findJobStep("not_exist"));
+    }
+
     private Job createNewJob() {
         return Job.newJob(JobConfig.builder()
                 .id(JOB_ID)
@@ -77,6 +84,21 @@ public class JobTest {
         ), PARAMS);
     }
 
+    @Test
+    public void summary() {
+        Job job = createNewJob();
+        job.updateStepRuning(job.getJobStep(STEP_1));
+        JobSummary summary = JobSummary.of(job);
+
+        assertEquals(summary.getId(), job.getId());
+        assertEquals(summary.getName(), JOB_NAME);
+        assertEquals(summary.getStepCount(JobSummary.StepState.EXECUTING), 1);
+        assertEquals(summary.getStepCount(JobSummary.StepState.WAITING), 1);
+
+        job.updateStepResult(JobResult.builder().jobStepId(STEP_1).success(false).build());
+        assertEquals(JobSummary.of(job).getStepCount(JobSummary.StepState.FAILED), 1);
+    }
+
     @Test
     public void isOver_SuccessOver() {
         Job job=createNewJob();
@@ -122,6 +144,35 @@ public class JobTest {
         assertTrue(job.getDelayTime(jobStep)>DELAY_1);
     }
 
+    @Test
+    public void getRetryDelayTime_default() {
+        Job job = createNewJob();
+        JobStep jobStep = job.getJobStep(STEP_1);
+        jobStep.setTryTimes(3);
+        assertEquals(job.getDelayTime(jobStep), 100000);
+        jobStep.setTryTimes(10);
+        assertEquals(job.getDelayTime(jobStep), 100000 * 1000L);
+    }
+
+    @Test
+    public void getRetryDelayTime_backoff() {
+        Job job = createNewJob();
+        JobStep jobStep = job.getJobStep(STEP_1);
+        jobStep.setTryTimes(4);
+
+        jobStep.setRetryBackoff(new FixedBackoff(500));
+        assertEquals(job.getDelayTime(jobStep), 500);
+        jobStep.setRetryBackoff(new ExponentialBackoff(100, 2, 300));
+        assertEquals(job.getDelayTime(jobStep), 300);
+        jobStep.setRetryBackoff(new JitterBackoff(100, 1000));
+        for (int i = 0; i < 100; i++) {
+            long delay = job.getDelayTime(jobStep);
+            assertTrue(delay >= 100 && delay <= 1000);
+        }
+        jobStep.setRetryBackoff(retry -> retry * 7L);
+        assertEquals(job.getDelayTime(jobStep), 21);
+    }
+
     @Test
     public void runNextSteps_first() {
         Job job=createNewJob();
@@ -198,4 +249,108 @@ public class JobTest {
         assertFalse(jobStep.isSuccess());
     }
 
-}
\ No newline at end of file
+    @Test
+    public void runNextSteps_afterStepResult() {
+        Job job=createNewJob();
+        List<JobStep> running=new ArrayList();
+        job.runNextSteps(step -> {
+            job.updateStepRuning(step);
+            running.add(step);
+        });
+        assertEquals(running.size(),1);
+        assertEquals(job.getExecutingStepCount(),1);
+        job.runNextSteps(running::add);
+        assertEquals(running.size(),1);
+
+        job.updateStepResult(JobResult.builder()
+                .success(true)
+                .jobStepId(STEP_1)
+                .build());
+        assertEquals(job.getExecutingStepCount(),0);
+        job.runNextSteps(running::add);
+        assertEquals(running.get(1),job.getJobStep(STEP_2));
+    }
+
+    @Test
+    public void runNextSteps_retryPreStep() {
+        Job job=createNewJob();
+        job.updateStepResult(JobResult.builder()
+                .success(true)
+                .jobStepId(STEP_1)
+                .build());
+        job.retryStep(STEP_1);
+        List<JobStep> running=new ArrayList();
+        job.runNextSteps(running::add);
+        assertEquals(running.size(),1);
+        assertEquals(running.get(0),job.getJobStep(STEP_1));
+    }
+
+    @Test
+    public void isOver_afterStepResult() {
+        Job job=createNewJob();
+        assertFalse(job.isOver());
+        job.updateStepResult(JobResult.builder()
+                .success(true)
+                .jobStepId(STEP_1)
+                .build());
+        for (int i = 0; i < MAX_TRY_2; i++) {
+            job.updateStepRuning(job.getJobStep(STEP_2));
+            job.updateStepResult(JobResult.builder()
+                    .success(false)
+                    .jobStepId(STEP_2)
+                    .build());
+        }
+        assertTrue(job.isOver());
+        assertFalse(job.isJobSuccessOver());
+        job.retryStep(STEP_2);
+        assertFalse(job.isOver());
+    }
+
+    @Test
+    public void runNextSteps_unknownPreStep() {
+        Job job=Job.newJob(JobConfig.builder()
+                .id(JOB_ID)
+                .name(JOB_NAME)
+                .build(), Arrays.asList(
+                JobStepConfig.builder()
+                        .delay(DELAY_1)
+                        .maxTry(MAX_TRY_1)
+                        .preJobs(Stream.of("not_exist").collect(Collectors.toSet()))
+                        .stepId(STEP_1)
+                        .build()), PARAMS);
+        List<JobStep> running=new ArrayList();
+        job.runNextSteps(running::add);
+        assertTrue(running.isEmpty());
+    }
+
+    @Test
+    public void isOver_stepChangedBySetter() {
+        Job job=createNewJob();
+        assertFalse(job.isOver());
+        job.getJobStep(STEP_1).setSuccess(true);
+        job.getJobStep(STEP_2).setSuccess(true);
+        assertTrue(job.isJobSuccessOver());
+
+        job.getJobStep(STEP_1).setSuccess(false).setExecuting(true);
+        assertFalse(job.isOver());
+        assertEquals(job.getExecutingStepCount(), 1);
+    }
+
+    @Test
+    public void runNextSteps_preJobsChangedBySetter() {
+        Job job=createNewJob();
+        List<JobStep> running=new ArrayList<>();
+        job.runNextSteps(running::add);
+        assertEquals(running.size(), 1);
+
+        job.getJobStep(STEP_2).setPreJobs(null);
+        running.clear();
+        job.runNextSteps(running::add);
+        assertEquals(running.size(), 2);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void getSteps_readOnly() {
+        createNewJob().getSteps().clear();
+    }
+}
@@ -0,0 +1,101 @@
+package domain.interceptor;
+
+import cn.bobdeng.job.domain.entity.StepInterceptor;
+import cn.bobdeng.job.domain.interceptor.InterceptorDAO;
+import cn.bobdeng.job.domain.interceptor.InterceptorServiceImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class InterceptorServiceImplTest {
+    public static final String JOB_ID = "job_id";
+    public static final String STEP_1 = "step_1";
+    public static final String STEP_2 = "step_2";
+    public static final String SERVER = "127.0.0.1:8080";
+    @InjectMocks
+    InterceptorServiceImpl interceptorService;
+    @Mock
+    private InterceptorDAO interceptorDAO;
+
+    @Test
+    public void getStepInterceptor() {
+        StepInterceptor interceptor = StepInterceptor.builder().jobId(JOB_ID).jobStepId(STEP_1).arbitraryServer(SERVER).build();
+        when(interceptorDAO.getStepInterceptors()).thenReturn(Collections.singletonList(interceptor));
+
+        assertEquals(interceptorService.getStepInterceptor(JOB_ID, STEP_1), interceptor);
+        assertNull(interceptorService.getStepInterceptor(JOB_ID, STEP_2));
+        verify(interceptorDAO, times(1)).getStepInterceptors();
+    }
+
+    @Test
+    public void addStepInterceptor() {
+        StepInterceptor interceptor = StepInterceptor.of(JOB_ID, STEP_2);
+        when(interceptorDAO.getStepInterceptors()).thenReturn(Collections.emptyList(), Collections.singletonList(interceptor));
+        assertNull(interceptorService.getStepInterceptor(JOB_ID, STEP_2));
+
+        interceptorService.addStepInterceptor(interceptor);
+
+        verify(interceptorDAO).addStepInterceptor(interceptor);
+        assertEquals(interceptorService.getStepInterceptor(JOB_ID, STEP_2), interceptor);
+    }
+
+    @Test
+    public void removeStepInterceptor() {
+        StepInterceptor interceptor = StepInterceptor.of(JOB_ID, STEP_1);
+        when(interceptorDAO.getStepInterceptors()).thenReturn(Collections.singletonList(interceptor), Collections.emptyList());
+        assertNotNull(interceptorService.getStepInterceptor(JOB_ID, STEP_1));
+
+        interceptorService.removeStepInterceptor(JOB_ID, STEP_1);
+
+        verify(interceptorDAO).removeStepInterceptor(JOB_ID, STEP_1);
+        assertNull(interceptorService.getStepInterceptor(JOB_ID, STEP_1));
+    }
+
+    @Test
+    public void refresh_versionChanged() {
+        StepInterceptor interceptor1 = StepInterceptor.of(JOB_ID, STEP_1);
+        StepInterceptor interceptor2 = StepInterceptor.of(JOB_ID, STEP_2);
+        when(interceptorDAO.getVersion()).thenReturn(1L, 1L, 2L);
+        when(interceptorDAO.getStepInterceptors()).thenReturn(Collections.singletonList(interceptor1), Arrays.asList(interceptor1, interceptor2));
+        assertNull(interceptorService.getStepInterceptor(JOB_ID, STEP_2));
+
+        interceptorService.refresh();
+        verify(interceptorDAO, times(1)).getStepInterceptors();
+        interceptorService.refresh();
+
+        assertEquals(interceptorService.getStepInterceptor(JOB_ID, STEP_2), interceptor2);
+    }
+
+    @Test
+    public void getStepInterceptor_refreshAfterInterval() throws Exception {
+        StepInterceptor interceptor = StepInterceptor.of(JOB_ID, STEP_1);
+        interceptorService.setRefreshIntervalMs(1);
+        when(interceptorDAO.getVersion()).thenReturn(1L, 2L);
+        when(interceptorDAO.getStepInterceptors()).thenReturn(Collections.emptyList(), Collections.singletonList(interceptor));
+        assertNull(interceptorService.getStepInterceptor(JOB_ID, STEP_1));
+
+        Thread.sleep(5);
+
+        assertEquals(interceptorService.getStepInterceptor(JOB_ID, STEP_1), interceptor);
+    }
+
+    @Test
+    public void refresh_unversioned() {
+        when(interceptorDAO.getVersion()).thenReturn(InterceptorDAO.UNVERSIONED);
+        when(interceptorDAO.getStepInterceptors()).thenReturn(Collections.emptyList());
+
+        interceptorService.refresh();
+        interceptorService.refresh();
+
+        verify(interceptorDAO, times(2)).getStepInterceptors();
+    }
+}
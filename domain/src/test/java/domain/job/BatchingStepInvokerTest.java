@@ -0,0 +1,99 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.entity.JobMethod;
+import cn.bobdeng.job.domain.job.BatchingStepInvoker;
+import cn.bobdeng.job.domain.job.StepInvoker;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchingStepInvokerTest {
+    private static final String METHOD_1 = "method_1";
+    private static final String METHOD_2 = "method_2";
+    private static final long LONG_LINGER_MS = 60000;
+    private static final long SHORT_LINGER_MS = 10;
+    @Mock
+    private StepInvoker delegate;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private JobMethod jobMethod(String method, String stepId) {
+        return JobMethod.builder().jobMethod(method).jobStepId(stepId).build();
+    }
+
+    @Test
+    public void invoke_maxBatchSize() {
+        BatchingStepInvoker invoker = new BatchingStepInvoker(delegate, LONG_LINGER_MS, 2, scheduler);
+        JobMethod step1 = jobMethod(METHOD_1, "step_1");
+        JobMethod step2 = jobMethod(METHOD_2, "step_2");
+        JobMethod step3 = jobMethod(METHOD_1, "step_3");
+
+        invoker.invoke(step1);
+        invoker.invoke(step2);
+        verifyZeroInteractions(delegate);
+        invoker.invoke(step3);
+
+        verify(delegate).invokeAll(Arrays.asList(step1, step3));
+        verifyNoMoreInteractions(delegate);
+        invoker.flush();
+        verify(delegate).invokeAll(Arrays.asList(step2));
+        assertEquals(invoker.getBatches(), 2);
+        assertEquals(invoker.getDispatches(), 3);
+    }
+
+    @Test
+    public void invoke_linger() {
+        BatchingStepInvoker invoker = new BatchingStepInvoker(delegate, SHORT_LINGER_MS, 100, scheduler);
+        JobMethod step1 = jobMethod(METHOD_1, "step_1");
+        JobMethod step2 = jobMethod(METHOD_1, "step_2");
+
+        invoker.invoke(step1);
+        invoker.invoke(step2);
+
+        verify(delegate, timeout(1000)).invokeAll(Arrays.asList(step1, step2));
+    }
+
+    @Test
+    public void invoke_delegateFailed() {
+        BatchingStepInvoker invoker = new BatchingStepInvoker(delegate, 0, 100, scheduler);
+        JobMethod step1 = jobMethod(METHOD_1, "step_1");
+        doThrow(new RuntimeException("network")).when(delegate).invokeAll(anyList());
+
+        invoker.invoke(step1);
+
+        assertEquals(invoker.getBatches(), 1);
+    }
+
+    @Test
+    public void invokeAsync_completeWithBatch() {
+        BatchingStepInvoker invoker = new BatchingStepInvoker(delegate, LONG_LINGER_MS, 100, scheduler);
+        JobMethod step1 = jobMethod(METHOD_1, "step_1");
+        JobMethod step2 = jobMethod(METHOD_1, "step_2");
+        doThrow(new RuntimeException("network")).when(delegate).invokeAll(anyList());
+
+        CompletableFuture<Void> future1 = invoker.invokeAsync(step1);
+        CompletableFuture<Void> future2 = invoker.invokeAsync(step2);
+        assertFalse(future1.isDone());
+        invoker.flush();
+
+        assertTrue(future1.isCompletedExceptionally());
+        assertTrue(future2.isCompletedExceptionally());
+    }
+}
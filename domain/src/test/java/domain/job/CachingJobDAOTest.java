@@ -0,0 +1,152 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.entity.JobConfig;
+import cn.bobdeng.job.domain.entity.JobStepConfig;
+import cn.bobdeng.job.domain.entity.JobSummary;
+import cn.bobdeng.job.domain.entity.JobSummaryQuery;
+import cn.bobdeng.job.domain.entity.JobTemplate;
+import cn.bobdeng.job.domain.job.CachingJobDAO;
+import cn.bobdeng.job.domain.job.JobDAO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CachingJobDAOTest {
+    public static final String JOB_ID = "job_id";
+    public static final String JOB_NAME = "job_name";
+    public static final String STEP_1 = "step_1";
+    public static final String STEP_2 = "step_2";
+    public static final String PARAMS = "{'params':1}";
+    @Mock
+    private JobDAO jobDAO;
+    private CachingJobDAO cachingJobDAO;
+
+    @Before
+    public void setUp() {
+        cachingJobDAO = new CachingJobDAO(jobDAO);
+    }
+
+    private void givenJobConfig() {
+        when(jobDAO.getJobConfig(JOB_ID)).thenReturn(JobConfig.builder().id(JOB_ID).name(JOB_NAME).build());
+        when(jobDAO.getJobConfigSteps(JOB_ID)).thenReturn(Arrays.asList(
+                JobStepConfig.builder().stepId(STEP_1).delay(0).maxTry(1).build(),
+                JobStepConfig.builder().stepId(STEP_2).delay(0).maxTry(1)
+                        .preJobs(Collections.singleton(STEP_1)).build()));
+    }
+
+    @Test
+    public void newJob() {
+        givenJobConfig();
+        Job job1 = cachingJobDAO.newJob(JOB_ID, PARAMS);
+        Job job2 = cachingJobDAO.newJob(JOB_ID, PARAMS);
+
+        verify(jobDAO, times(1)).getJobConfig(JOB_ID);
+        verify(jobDAO, times(1)).getJobConfigSteps(JOB_ID);
+        verify(jobDAO, never()).newJob(any(), any());
+        assertNotEquals(job1.getId(), job2.getId());
+        assertEquals(job1.getName(), JOB_NAME);
+        assertEquals(job1.getParams(), PARAMS);
+        assertEquals(job1.getJobStep(STEP_2).getJobSerial(), job1.getId());
+        assertTrue(job1.getJobStep(STEP_2).getPreJobs().contains(STEP_1));
+        assertNotSame(job1.getJobStep(STEP_1), job2.getJobStep(STEP_1));
+    }
+
+    @Test
+    public void reloadJobConfig() {
+        givenJobConfig();
+        cachingJobDAO.newJob(JOB_ID, PARAMS);
+
+        cachingJobDAO.reloadJobConfig(JOB_ID);
+        cachingJobDAO.newJob(JOB_ID, PARAMS);
+
+        verify(jobDAO).reloadJobConfig(JOB_ID);
+        verify(jobDAO, times(2)).getJobConfig(JOB_ID);
+    }
+
+    @Test
+    public void resolve_oldConfigVersion() {
+        givenJobConfig();
+        Job oldJob = cachingJobDAO.newJob(JOB_ID, PARAMS);
+        when(jobDAO.getJobConfigSteps(JOB_ID)).thenReturn(Collections.singletonList(
+                JobStepConfig.builder().stepId(STEP_1).delay(0).maxTry(2).build()));
+
+        cachingJobDAO.reloadJobConfig(JOB_ID);
+        Job newJob = cachingJobDAO.newJob(JOB_ID, PARAMS);
+
+        assertNotEquals(newJob.getConfigVersion(), oldJob.getConfigVersion());
+        assertEquals(cachingJobDAO.resolve(JOB_ID, oldJob.getConfigVersion()).getSteps().size(), 2);
+        assertEquals(cachingJobDAO.resolve(JOB_ID, newJob.getConfigVersion()).getSteps().size(), 1);
+    }
+
+    @Test
+    public void resolve_versionFromStore() {
+        givenJobConfig();
+        JobTemplate oldTemplate = JobTemplate.of(JobConfig.builder().id(JOB_ID).name(JOB_NAME).build(),
+                Collections.singletonList(JobStepConfig.builder().stepId(STEP_1).delay(0).maxTry(2).build()));
+        when(jobDAO.getJobTemplate(JOB_ID, oldTemplate.getConfigVersion())).thenReturn(oldTemplate);
+
+        assertEquals(cachingJobDAO.resolve(JOB_ID, oldTemplate.getConfigVersion()), oldTemplate);
+        assertEquals(cachingJobDAO.resolve(JOB_ID, oldTemplate.getConfigVersion()), oldTemplate);
+        verify(jobDAO, times(1)).getJobTemplate(JOB_ID, oldTemplate.getConfigVersion());
+    }
+
+    @Test
+    public void findSummaryPage() {
+        givenJobConfig();
+        List<Job> jobs = Arrays.asList(cachingJobDAO.newJob(JOB_ID, PARAMS), cachingJobDAO.newJob(JOB_ID, PARAMS),
+                cachingJobDAO.newJob(JOB_ID, PARAMS));
+        jobs.get(1).updateStepRuning(jobs.get(1).getJobStep(STEP_1));
+        JobDAO defaultDAO = mock(JobDAO.class, Answers.CALLS_REAL_METHODS);
+        doAnswer(invocation -> {
+            String after = invocation.getArgument(0);
+            int limit = invocation.getArgument(1);
+            return jobs.stream()
+                    .filter(job -> after == null || job.getId().compareTo(after) > 0)
+                    .sorted(Comparator.comparing(Job::getId))
+                    .limit(limit)
+                    .collect(Collectors.toList());
+        }).when(defaultDAO).findPage(any(), anyInt());
+
+        List<JobSummary> summaries = defaultDAO.findSummaryPage(
+                JobSummaryQuery.builder().stepState(JobSummary.StepState.EXECUTING).build(), null, 1);
+        List<JobSummary> all = new ArrayList<>();
+        defaultDAO.forEachSummary(JobSummaryQuery.builder().jobId(JOB_ID).build(), all::add);
+
+        assertEquals(summaries.size(), 1);
+        assertEquals(summaries.get(0).getId(), jobs.get(1).getId());
+        assertEquals(all.size(), 3);
+        verify(defaultDAO, never()).findAll();
+    }
+
+    @Test
+    public void saveChangedSteps_defaultSaveSteps() {
+        givenJobConfig();
+        Job job = cachingJobDAO.newJob(JOB_ID, PARAMS);
+        JobDAO defaultDAO = mock(JobDAO.class, Answers.CALLS_REAL_METHODS);
+        doNothing().when(defaultDAO).saveSteps(job);
+
+        defaultDAO.saveChangedSteps(job, Collections.singletonList(job.getJobStep(STEP_1)));
+
+        verify(defaultDAO).saveSteps(job);
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void newJob_configNotExist() {
+        cachingJobDAO.newJob("not_exist", PARAMS);
+    }
+}
@@ -0,0 +1,141 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.entity.JobMethod;
+import cn.bobdeng.job.domain.job.DelayExecutor;
+import cn.bobdeng.job.domain.job.DispatchThrottle;
+import cn.bobdeng.job.domain.job.InMemoryLimitCounterStore;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DispatchThrottleTest {
+    private static final String JOB_ID = "job_id";
+    private static final String METHOD_1 = "method_1";
+    private static final String METHOD_2 = "method_2";
+    @Mock
+    private DelayExecutor delayExecutor;
+    private InMemoryLimitCounterStore counterStore;
+    private DispatchThrottle dispatchThrottle;
+    private final List<String> dispatched = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        counterStore = new InMemoryLimitCounterStore();
+        dispatchThrottle = new DispatchThrottle(counterStore, delayExecutor);
+    }
+
+    private boolean submit(String serial, String method) {
+        return dispatchThrottle.submit(stepMethod(serial, method), queued -> dispatched.add(serial + (queued ? ":queued" : "")));
+    }
+
+    private static JobMethod stepMethod(String serial, String method) {
+        return JobMethod.builder().jobId(JOB_ID).jobSerialId(serial).jobStepId("step").jobMethod(method).build();
+    }
+
+    @Test
+    public void submit_noLimit() {
+        submit("serial_1", METHOD_1);
+
+        assertEquals(dispatched.size(), 1);
+        verifyZeroInteractions(delayExecutor);
+    }
+
+    @Test
+    public void submit_methodInFlight() {
+        dispatchThrottle.setMethodLimit(METHOD_1, 1, 0);
+        assertFalse(submit("serial_1", METHOD_1));
+        assertTrue(submit("serial_2", METHOD_1));
+        assertTrue(submit("serial_3", METHOD_1));
+        assertFalse(submit("serial_4", METHOD_2));
+
+        assertEquals(dispatched, Arrays.asList("serial_1", "serial_4"));
+        assertEquals(dispatchThrottle.getWaiting(), 2);
+
+        dispatchThrottle.release(stepMethod("serial_1", METHOD_1));
+
+        assertEquals(dispatched.get(2), "serial_2:queued");
+        assertEquals(dispatchThrottle.getWaiting(), 1);
+        assertEquals(counterStore.getCount("method:" + METHOD_1 + ":in_flight"), 1);
+    }
+
+    @Test
+    public void release_waitingStep() {
+        dispatchThrottle.setJobLimit(JOB_ID, 1, 0);
+        submit("serial_1", METHOD_1);
+        submit("serial_2", METHOD_2);
+
+        dispatchThrottle.release(stepMethod("serial_2", METHOD_2));
+        dispatchThrottle.release(stepMethod("serial_1", METHOD_1));
+
+        assertEquals(dispatched.size(), 1);
+        assertEquals(dispatchThrottle.getWaiting(), 0);
+        assertEquals(dispatchThrottle.getHeld(), 0);
+    }
+
+    @Test
+    public void submit_renewLease() {
+        dispatchThrottle.setMethodLimit(METHOD_1, 1, 0);
+        submit("serial_1", METHOD_1);
+
+        ArgumentCaptor<Runnable> renew = ArgumentCaptor.forClass(Runnable.class);
+        verify(delayExecutor).execute(renew.capture(), eq(DispatchThrottle.DEFAULT_LEASE_MS / 3));
+        renew.getValue().run();
+
+        verify(delayExecutor, times(2)).execute(any(), eq(DispatchThrottle.DEFAULT_LEASE_MS / 3));
+        assertEquals(counterStore.getCount("method:" + METHOD_1 + ":in_flight"), 1);
+    }
+
+    @Test
+    public void release_otherNode() {
+        DispatchThrottle otherNode = new DispatchThrottle(counterStore, delayExecutor);
+        otherNode.setMethodLimit(METHOD_1, 1, 0);
+        dispatchThrottle.setMethodLimit(METHOD_1, 1, 0);
+        submit("serial_1", METHOD_1);
+
+        //结果在另一个节点处理，那个节点没有持有记录也能释放
+        otherNode.release(stepMethod("serial_1", METHOD_1));
+        assertEquals(counterStore.getCount("method:" + METHOD_1 + ":in_flight"), 0);
+
+        ArgumentCaptor<Runnable> renew = ArgumentCaptor.forClass(Runnable.class);
+        verify(delayExecutor).execute(renew.capture(), eq(DispatchThrottle.DEFAULT_LEASE_MS / 3));
+        renew.getValue().run();
+
+        //续租失败后本节点不再持有，也不会把名额续回来
+        assertEquals(dispatchThrottle.getHeld(), 0);
+        assertEquals(counterStore.getCount("method:" + METHOD_1 + ":in_flight"), 0);
+        verify(delayExecutor, times(1)).execute(any(), eq(DispatchThrottle.DEFAULT_LEASE_MS / 3));
+    }
+
+    @Test
+    public void counterStore_leaseExpired() throws Exception {
+        assertTrue(counterStore.tryAcquire("key", "crashed", 1, 1));
+        Thread.sleep(5);
+
+        assertTrue(counterStore.tryAcquire("key", "holder", 1, 60000));
+        assertTrue(counterStore.tryAcquire("key", "holder", 1, 60000));
+        assertFalse(counterStore.renew("key", "crashed", 60000));
+        assertEquals(counterStore.getCount("key"), 1);
+    }
+
+    @Test
+    public void submit_rate() {
+        dispatchThrottle.setMethodLimit(METHOD_1, 0, 1);
+        submit("serial_1", METHOD_1);
+        submit("serial_2", METHOD_1);
+
+        verify(delayExecutor).execute(any(), longThat(delay -> delay > 0 && delay <= DispatchThrottle.RATE_WINDOW_MS));
+        assertEquals(dispatched.size(), 1);
+        assertEquals(dispatchThrottle.getHeld(), 0);
+    }
+}
@@ -0,0 +1,60 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.job.JobCache;
+import cn.bobdeng.job.domain.job.JobDAO;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class JobCacheTest {
+    public static final String JOB_SERIAL = "job_serial";
+    @Mock
+    private JobDAO jobDAO;
+    private JobCache jobCache;
+
+    @Before
+    public void setUp() {
+        jobCache = new JobCache(jobDAO);
+    }
+
+    @Test
+    public void getJob_hit() {
+        Job job = Job.builder().id(JOB_SERIAL).version(1).build();
+        when(jobDAO.getJob(JOB_SERIAL)).thenReturn(job);
+        when(jobDAO.getJobVersion(JOB_SERIAL)).thenReturn(1L);
+
+        assertSame(jobCache.getJob(JOB_SERIAL), job);
+        assertSame(jobCache.getJob(JOB_SERIAL), job);
+
+        verify(jobDAO, times(1)).getJob(JOB_SERIAL);
+        assertEquals(jobCache.getHits(), 1);
+        assertEquals(jobCache.getMisses(), 1);
+        assertEquals(jobCache.getHitRate(), 0.5, 0.001);
+    }
+
+    @Test
+    public void getJob_stale() {
+        Job job = Job.builder().id(JOB_SERIAL).version(1).build();
+        Job newJob = Job.builder().id(JOB_SERIAL).version(2).build();
+        jobCache.put(job);
+        when(jobDAO.getJobVersion(JOB_SERIAL)).thenReturn(2L);
+        when(jobDAO.getJob(JOB_SERIAL)).thenReturn(newJob);
+
+        assertSame(jobCache.getJob(JOB_SERIAL), newJob);
+        assertEquals(jobCache.getStaleMisses(), 1);
+    }
+
+    @Test
+    public void evict() {
+        jobCache.put(Job.builder().id(JOB_SERIAL).build());
+        jobCache.evict(JOB_SERIAL);
+        assertEquals(jobCache.size(), 0);
+    }
+}
@@ -0,0 +1,98 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.entity.JobConfig;
+import cn.bobdeng.job.domain.entity.JobStepConfig;
+import cn.bobdeng.job.domain.job.JobEventLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class JobEventLogTest {
+    private static final String JOB_ID = "job_id";
+    private static final String STEP_1 = "step_1";
+    private final Logger logger = Logger.getLogger(JobEventLog.class.getName());
+    private final List<LogRecord> records = new ArrayList<>();
+    private final Handler handler = new Handler() {
+        @Override
+        public void publish(LogRecord record) {
+            records.add(record);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private Level level;
+
+    @Before
+    public void setUp() {
+        level = logger.getLevel();
+        logger.addHandler(handler);
+    }
+
+    @After
+    public void tearDown() {
+        logger.removeHandler(handler);
+        logger.setLevel(level);
+    }
+
+    private Job createNewJob() {
+        return Job.newJob(JobConfig.builder().id(JOB_ID).name("job_name").build(), Collections.singletonList(
+                JobStepConfig.builder().stepId(STEP_1).methodName("method_1").delay(0).maxTry(1).build()), "{'params':1}");
+    }
+
+    @Test
+    public void stepDispatched_levelOff() {
+        logger.setLevel(Level.INFO);
+        Job job = createNewJob();
+
+        new JobEventLog(1).stepDispatched(job, job.getJobStep(STEP_1), 0);
+
+        assertTrue(records.isEmpty());
+    }
+
+    @Test
+    public void stepDispatched() {
+        logger.setLevel(Level.FINE);
+        Job job = createNewJob();
+
+        new JobEventLog().stepDispatched(job, job.getJobStep(STEP_1), 0);
+        new JobEventLog(1).jobNext(job);
+
+        assertEquals(records.size(), 2);
+        assertTrue(records.get(0).getMessage().startsWith("event=step_dispatched serial=" + job.getId()));
+        assertFalse(records.get(0).getMessage().contains("detail="));
+        assertTrue(records.get(1).getMessage().contains("detail="));
+    }
+
+    @Test
+    public void jobOver() {
+        logger.setLevel(Level.INFO);
+        Job job = createNewJob();
+        job.getJobStep(STEP_1).setSuccess(true);
+
+        new JobEventLog().jobOver(job);
+
+        assertEquals(records.size(), 1);
+        assertTrue(records.get(0).getMessage().contains("success=true"));
+        assertFalse(records.get(0).getMessage().contains("preJobs"));
+    }
+}
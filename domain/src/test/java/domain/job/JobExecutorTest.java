@@ -0,0 +1,153 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.entity.JobResult;
+import cn.bobdeng.job.domain.job.AsyncJobService;
+import cn.bobdeng.job.domain.job.JobExecutor;
+import cn.bobdeng.job.domain.job.JobService;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+@RunWith(JUnit4.class)
+public class JobExecutorTest {
+    private static final String JOB_ID = "job_id";
+    private static final String PARAMS = "{}";
+    private JobExecutor jobExecutor;
+
+    @After
+    public void tearDown() {
+        jobExecutor.shutdown();
+    }
+
+    @Test
+    public void pooled_queueDepth() throws Exception {
+        jobExecutor = JobExecutor.pooled(1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        boolean[] callerRun = new boolean[1];
+        jobExecutor.execute(() -> {
+            running.countDown();
+            await(release);
+        });
+        running.await(1, TimeUnit.SECONDS);
+        jobExecutor.execute(() -> await(release));
+
+        assertEquals(jobExecutor.getActiveCount(), 1);
+        assertEquals(jobExecutor.getQueueDepth(), 1);
+        assertEquals(jobExecutor.getSaturation(), 1, 0.001);
+        //队列满了由调用线程执行
+        jobExecutor.execute(() -> callerRun[0] = Thread.currentThread() == caller);
+        assertTrue(callerRun[0]);
+        assertEquals(jobExecutor.getCallerRuns(), 1);
+        release.countDown();
+    }
+
+    @Test
+    public void pooled_rejectAfterShutdown() {
+        jobExecutor = JobExecutor.pooled(1, 1);
+        jobExecutor.shutdown();
+
+        try {
+            jobExecutor.execute(() -> fail("dropped task should not run"));
+            fail();
+        } catch (RejectedExecutionException e) {
+            assertEquals(jobExecutor.getDropped(), 1);
+            assertEquals(jobExecutor.getCallerRuns(), 0);
+            assertEquals(jobExecutor.getQueueDepth(), 0);
+        }
+    }
+
+    @Test
+    public void virtual_execute() throws Exception {
+        jobExecutor = JobExecutor.of(JobExecutor.Mode.VIRTUAL, 2);
+        CountDownLatch done = new CountDownLatch(1);
+
+        jobExecutor.execute(done::countDown);
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(jobExecutor.getMaxConcurrency(), 2);
+    }
+
+    @Test
+    public void virtual_callerRunsWhenSaturated() throws Exception {
+        jobExecutor = JobExecutor.of(JobExecutor.Mode.VIRTUAL, 1);
+        //不支持虚拟线程时退回有队列的线程池
+        Assume.assumeTrue(jobExecutor.isVirtual());
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread caller = Thread.currentThread();
+        boolean[] callerRun = new boolean[1];
+        jobExecutor.execute(() -> {
+            running.countDown();
+            await(release);
+        });
+        assertTrue(running.await(1, TimeUnit.SECONDS));
+
+        //名额用完时不再创建线程，由调用线程执行
+        jobExecutor.execute(() -> callerRun[0] = Thread.currentThread() == caller);
+
+        assertTrue(callerRun[0]);
+        assertEquals(jobExecutor.getCallerRuns(), 1);
+        release.countDown();
+    }
+
+    @Test
+    public void asyncJobService_startJob() {
+        jobExecutor = JobExecutor.pooled(1, 10);
+        JobService delegate = mock(JobService.class);
+
+        new AsyncJobService(delegate, jobExecutor).startJob(JOB_ID, PARAMS);
+
+        verify(delegate, timeout(1000)).startJob(JOB_ID, PARAMS);
+    }
+
+    @Test
+    public void asyncJobService_onJobResult() {
+        jobExecutor = JobExecutor.pooled(1, 10);
+        JobService delegate = mock(JobService.class);
+        JobResult jobResult = JobResult.builder().jobSerialId("serial").jobStepId("step").build();
+        doThrow(new IllegalStateException("lock failed")).when(delegate).onJobResult(jobResult);
+
+        //默认在调用线程处理结果，失败时调用方知道
+        try {
+            new AsyncJobService(delegate, jobExecutor).onJobResult(jobResult);
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals(e.getMessage(), "lock failed");
+        }
+
+        new AsyncJobService(delegate, jobExecutor, true).onJobResult(jobResult);
+
+        verify(delegate, timeout(1000).times(2)).onJobResult(jobResult);
+        waitCompleted(1);
+        assertEquals(jobExecutor.getFailed(), 1);
+    }
+
+    private void waitCompleted(long count) {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (jobExecutor.getCompleted() < count && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
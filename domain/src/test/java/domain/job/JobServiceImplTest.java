@@ -3,24 +3,42 @@ package domain.job;
 import cn.bobdeng.job.domain.entity.Job;
 import cn.bobdeng.job.domain.entity.JobConfig;
 import cn.bobdeng.job.domain.entity.JobResult;
+import cn.bobdeng.job.domain.entity.JobStartResult;
 import cn.bobdeng.job.domain.entity.JobStepConfig;
-import cn.bobdeng.job.domain.interceptor.InterceptorDAO;
+import cn.bobdeng.job.domain.entity.StepInterceptor;
+import cn.bobdeng.job.domain.interceptor.InterceptorService;
 import cn.bobdeng.job.domain.job.DelayExecutor;
+import cn.bobdeng.job.domain.job.DispatchThrottle;
+import cn.bobdeng.job.domain.job.InMemoryLimitCounterStore;
+import cn.bobdeng.job.domain.job.JobCache;
 import cn.bobdeng.job.domain.job.JobDAO;
 import cn.bobdeng.job.domain.job.JobServiceImpl;
+import cn.bobdeng.job.domain.job.PriorityDispatcher;
+import cn.bobdeng.job.domain.job.RepeatHashMode;
+import cn.bobdeng.job.domain.job.RepeatKeyFilter;
 import cn.bobdeng.job.domain.job.StepInvoker;
+import cn.bobdeng.job.domain.metrics.InMemoryJobMetrics;
+import cn.bobdeng.job.domain.metrics.JobMetrics;
+import cn.bobdeng.job.domain.shard.JobResultForwarder;
+import cn.bobdeng.job.domain.shard.JobShardRouter;
 import com.google.common.hash.Hashing;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -44,10 +62,11 @@ public class JobServiceImplTest {
     JobServiceImpl jobService;
     @Mock
     private JobDAO jobDAO;
-    @Mock
+    //invokeAsync默认调用invoke
+    @Mock(answer = Answers.CALLS_REAL_METHODS)
     private StepInvoker stepInvoker;
     @Mock
-    private InterceptorDAO interceptorDAO;
+    private InterceptorService interceptorService;
     @Mock
     private DelayExecutor delayExecutor;
     public static final String PARAMS = "{'params':1}";
@@ -64,10 +83,20 @@ public class JobServiceImplTest {
     private static final String STEP_2 = "step_2";
     private static final String STEP_NAME_2 = "step_name_2";
     public static final String NEW_PARAMS = "{new_params}";
+    private static final String JOB_SERIAL = "job_serial";
+    private static final String NODE_2 = "node_2";
+    private static final int TIMEOUT_1 = 5000;
+    private static final String SERVER = "127.0.0.1:8080";
     @Captor
     ArgumentCaptor<Runnable> runnableArgumentCaptor;
     @Captor
     ArgumentCaptor<Long> delayCaptor;
+    @Before
+    public void setUp() {
+        //认领和记录发送时间在测试线程里执行
+        jobService.setDispatchRecordExecutor(Runnable::run);
+    }
+
     @Test
     public void testConstants(){
 
@@ -113,6 +142,8 @@ public class JobServiceImplTest {
         Job newJob = createNewJob();
         when(jobDAO.newJob(JOB_ID,PARAMS)).thenReturn(newJob);
         when(jobDAO.getKey(getJobRepeatHash(JOB_ID,PARAMS))).thenReturn(null);
+        //延迟的步骤到时间后加锁读取JOB认领
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
 
         jobService.startJob(JOB_ID,PARAMS);
 
@@ -120,8 +151,11 @@ public class JobServiceImplTest {
         verify(delayExecutor).execute(runnableArgumentCaptor.capture(),delayCaptor.capture());
         verify(stepInvoker).invoke(newJob.getStepMethod(STEP_2));
         verify(stepInvoker,times(0)).invoke(newJob.getStepMethod(STEP_1));
+        assertTrue(newJob.getJobStep(STEP_2).isSent());
+        assertFalse(newJob.getJobStep(STEP_1).isSent());
         runnableArgumentCaptor.getValue().run();
         verify(stepInvoker).invoke(newJob.getStepMethod(STEP_1));
+        assertTrue(newJob.getJobStep(STEP_1).isSent());
         assertEquals(delayCaptor.getValue().longValue(),DELAY_1);
     }
     @Test
@@ -200,7 +234,493 @@ public class JobServiceImplTest {
                 .build());
 
         verifyZeroInteractions(stepInvoker);
+        verify(jobDAO).deleteJobById(newJob.getId());
+        verify(jobDAO, never()).saveJob(newJob);
+
+    }
+
+    @Test
+    public void onJobResults() {
+        Job newJob = createNewJob();
+        newJob.getJobStep(STEP_1).setExecuting(true);
+        newJob.getJobStep(STEP_2).setExecuting(true);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+        jobService.onJobResults(Arrays.asList(JobResult.builder()
+                .jobStepId(STEP_1)
+                .success(true)
+                .jobSerialId(newJob.getId())
+                .build(), JobResult.builder()
+                .jobStepId(STEP_2)
+                .output(NEW_PARAMS)
+                .success(true)
+                .jobSerialId(newJob.getId())
+                .build()));
+
+        assertEquals(newJob.getParams(),NEW_PARAMS);
+        verify(jobDAO,times(1)).lock(newJob.getId());
+        verify(jobDAO,times(1)).getJob(newJob.getId());
+        verify(jobDAO,times(1)).saveJob(newJob);
+        verify(stepInvoker).invoke(newJob.getStepMethod(STEP_3));
+    }
+
+    @Test
+    public void onJobResult_saveChangedStepsOnce() {
+        Job newJob = createNewJob();
+        newJob.getJobStep(STEP_1).setExecuting(true);
+        newJob.getJobStep(STEP_2).setSuccess(true);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+        jobService.onJobResult(JobResult.builder()
+                .jobStepId(STEP_1)
+                .success(true)
+                .jobSerialId(newJob.getId())
+                .build());
+
+        verify(jobDAO).saveChangedSteps(newJob, Arrays.asList(newJob.getJobStep(STEP_1), newJob.getJobStep(STEP_3)));
+        verify(jobDAO, never()).saveSteps(any());
+        verify(jobDAO, never()).saveJob(any());
+        verify(stepInvoker).invoke(newJob.getStepMethod(STEP_3));
+    }
+
+    @Test
+    public void onJobResult_forwardToOwner() {
+        JobShardRouter shardRouter = mock(JobShardRouter.class);
+        JobResultForwarder resultForwarder = mock(JobResultForwarder.class);
+        jobService.setShardRouter(shardRouter);
+        jobService.setResultForwarder(resultForwarder);
+        JobResult jobResult = JobResult.builder()
+                .jobStepId(STEP_1)
+                .success(true)
+                .jobSerialId(JOB_SERIAL)
+                .build();
+        when(shardRouter.isLocal(JOB_SERIAL)).thenReturn(false);
+        when(shardRouter.ownerOf(JOB_SERIAL)).thenReturn(NODE_2);
+        when(resultForwarder.forward(NODE_2, Collections.singletonList(jobResult))).thenReturn(true);
+
+        jobService.onJobResult(jobResult);
+
+        verify(jobDAO, never()).lock(any());
+        verify(jobDAO, never()).getJob(any());
+    }
+
+    @Test
+    public void onJobResult_forwardFailed() {
+        JobShardRouter shardRouter = mock(JobShardRouter.class);
+        JobResultForwarder resultForwarder = mock(JobResultForwarder.class);
+        jobService.setShardRouter(shardRouter);
+        jobService.setResultForwarder(resultForwarder);
+        Job newJob = createNewJob();
+        newJob.getJobStep(STEP_1).setExecuting(true);
+        JobResult jobResult = JobResult.builder()
+                .jobStepId(STEP_1)
+                .success(true)
+                .jobSerialId(newJob.getId())
+                .build();
+        when(shardRouter.isLocal(newJob.getId())).thenReturn(false);
+        when(shardRouter.ownerOf(newJob.getId())).thenReturn(NODE_2);
+        when(resultForwarder.forward(NODE_2, Collections.singletonList(jobResult))).thenReturn(false);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        jobService.onJobResult(jobResult);
+
+        assertTrue(newJob.getJobStep(STEP_1).isSuccess());
+    }
+
+    @Test
+    public void onJobResult_cachedJob() {
+        jobService.setJobCache(new JobCache(jobDAO));
+        Job newJob = createNewJob();
+        newJob.getJobStep(STEP_1).setExecuting(true);
+        newJob.getJobStep(STEP_2).setExecuting(true);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+        when(jobDAO.getJobVersion(newJob.getId())).thenAnswer(invocation -> newJob.getVersion());
+        jobService.onJobResult(JobResult.builder()
+                .jobStepId(STEP_1)
+                .success(true)
+                .jobSerialId(newJob.getId())
+                .build());
+        jobService.onJobResult(JobResult.builder()
+                .jobStepId(STEP_2)
+                .success(true)
+                .jobSerialId(newJob.getId())
+                .build());
+
+        verify(jobDAO, times(1)).getJob(newJob.getId());
+        assertEquals(newJob.getVersion(), 2);
+        verify(stepInvoker).invoke(newJob.getStepMethod(STEP_3));
+    }
+
+    @Test
+    public void recoverDelayedSteps() {
+        Job newJob = createNewJob();
+        newJob.getJobStep(STEP_1).setExecuting(true).setDispatchTime(System.currentTimeMillis() + 60000);
+        newJob.getJobStep(STEP_2).setExecuting(true).setDispatchTime(System.currentTimeMillis() - 1);
+        when(jobDAO.findPage(null, JobServiceImpl.DEFAULT_RECOVER_PAGE_SIZE)).thenReturn(Collections.singletonList(newJob));
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        jobService.recoverDelayedSteps();
+
+        verify(delayExecutor, times(1)).execute(runnableArgumentCaptor.capture(), delayCaptor.capture());
+        verify(stepInvoker).invoke(newJob.getStepMethod(STEP_2));
+        assertTrue(newJob.getJobStep(STEP_2).isSent());
+        assertFalse(newJob.getJobStep(STEP_1).isSent());
+        assertTrue(delayCaptor.getValue() > 0);
+        runnableArgumentCaptor.getValue().run();
+        verify(stepInvoker).invoke(newJob.getStepMethod(STEP_1));
+        assertTrue(newJob.getJobStep(STEP_1).isSent());
+    }
+
+    @Test
+    public void recoverDelayedSteps_sentStep() {
+        Job newJob = createTimeoutJob();
+        newJob.getJobStep(STEP_1).setExecuting(true).setSent(true).setDispatchTime(System.currentTimeMillis() - 1000);
+        when(jobDAO.findPage(null, JobServiceImpl.DEFAULT_RECOVER_PAGE_SIZE)).thenReturn(Collections.singletonList(newJob));
+
+        jobService.recoverDelayedSteps();
+
+        //认领过的不再发送，按剩下的时间检查超时
+        verify(stepInvoker, never()).invoke(any());
+        verify(delayExecutor).execute(any(Runnable.class), delayCaptor.capture());
+        assertTrue(delayCaptor.getValue() <= TIMEOUT_1 - 1000);
+    }
+
+    @Test
+    public void recoverDelayedSteps_claimOnce() {
+        Job newJob = createNewJob();
+        newJob.getJobStep(STEP_2).setExecuting(true).setDispatchTime(System.currentTimeMillis() - 1);
+        when(jobDAO.findPage(null, JobServiceImpl.DEFAULT_RECOVER_PAGE_SIZE)).thenReturn(Collections.singletonList(newJob));
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        //没有分片时两个节点都恢复同一个JOB，只有认领到的发送
+        jobService.recoverDelayedSteps();
+        jobService.recoverDelayedSteps();
 
+        verify(stepInvoker, times(1)).invoke(newJob.getStepMethod(STEP_2));
+    }
+
+    @Test
+    public void startJob_murmur3RepeatHash() {
+        jobService.setRepeatHashMode(RepeatHashMode.MURMUR3);
+        Job newJob = createNewJob();
+        String key = RepeatHashMode.MURMUR3.keysOf(JOB_ID, PARAMS).get(0);
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(jobDAO.getKey(key)).thenReturn(JobServiceImpl.OK);
+
+        jobService.startJob(JOB_ID, PARAMS);
+
+        assertNotEquals(key, getJobRepeatHash(JOB_ID, PARAMS));
+        verify(jobDAO, never()).saveJob(any());
+    }
+
+    @Test
+    public void startJob_dualRepeatHash() {
+        jobService.setRepeatHashMode(RepeatHashMode.DUAL);
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        //切换前用MD5写入的Key也能查到
+        when(jobDAO.getKeys(RepeatHashMode.DUAL.keysOf(JOB_ID, PARAMS)))
+                .thenReturn(Collections.singletonMap(getJobRepeatHash(JOB_ID, PARAMS), JobServiceImpl.OK));
+
+        jobService.startJob(JOB_ID, PARAMS);
+
+        verify(jobDAO, never()).saveJob(any());
+    }
+
+    @Test
+    public void startJob_repeatKeyFilter() {
+        AtomicLong now = new AtomicLong();
+        RepeatKeyFilter repeatKeyFilter = new RepeatKeyFilter(1000, 0.01, JobServiceImpl.JOB_HASH_EXPIRE_IN_MS, now::get);
+        now.addAndGet(JobServiceImpl.JOB_HASH_EXPIRE_IN_MS);
+        jobService.setRepeatKeyFilter(repeatKeyFilter);
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+
+        jobService.startJob(JOB_ID, PARAMS);
+
+        verify(jobDAO, never()).getKey(any());
+        verify(jobDAO).saveJob(newJob);
+        assertEquals(repeatKeyFilter.getSkipped(), 1);
+        assertTrue(repeatKeyFilter.mightContainAny(Collections.singletonList(getJobRepeatHash(JOB_ID, PARAMS))));
+    }
+
+    @Test
+    public void startJobs() {
+        List<String> paramsList = Arrays.asList(PARAMS, NEW_PARAMS, PARAMS);
+        List<Job> jobs = paramsList.stream()
+                .map(params -> Job.newJob(JobConfig.builder().id(JOB_ID).name(JOB_NAME).build(), createJobSteps(), params))
+                .collect(Collectors.toList());
+        when(jobDAO.newJobs(JOB_ID, paramsList)).thenReturn(jobs);
+        when(jobDAO.getKeys(anyCollection())).thenReturn(Collections.singletonMap(getJobRepeatHash(JOB_ID, NEW_PARAMS), JobServiceImpl.OK));
+
+        List<JobStartResult> results = jobService.startJobs(JOB_ID, paramsList);
+
+        assertEquals(results.stream().map(JobStartResult::getStatus).collect(Collectors.toList()), Arrays.asList(
+                JobStartResult.Status.ACCEPTED, JobStartResult.Status.DUPLICATE, JobStartResult.Status.DUPLICATE));
+        assertEquals(results.get(0).getJobSerialId(), jobs.get(0).getId());
+        verify(jobDAO).saveJobs(Collections.singletonList(jobs.get(0)));
+        verify(jobDAO).putKeys(Collections.singletonMap(getJobRepeatHash(JOB_ID, PARAMS), JobServiceImpl.OK), JobServiceImpl.JOB_HASH_EXPIRE_IN_MS);
+        verify(jobDAO, never()).lock(any());
+        verify(stepInvoker).invoke(jobs.get(0).getStepMethod(STEP_2));
+        assertEquals(jobs.get(0).getVersion(), 1);
+    }
+
+    @Test
+    public void startJobs_saveFailed() {
+        Job newJob = createNewJob();
+        when(jobDAO.newJobs(JOB_ID, Collections.singletonList(PARAMS))).thenReturn(Collections.singletonList(newJob));
+        doThrow(new RuntimeException("store down")).when(jobDAO).saveJobs(anyList());
+
+        try {
+            jobService.startJobs(JOB_ID, Collections.singletonList(PARAMS));
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(e.getMessage(), "store down");
+        }
+
+        //延迟发送和超时都在保存之后才启动
+        verifyZeroInteractions(delayExecutor);
+        verify(stepInvoker, never()).invoke(any());
+    }
+
+    @Test
+    public void startJob_dispatchAfterUnlock() {
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+
+        jobService.startJob(JOB_ID, PARAMS);
+
+        InOrder inOrder = inOrder(jobDAO, stepInvoker);
+        inOrder.verify(jobDAO).saveJob(newJob);
+        inOrder.verify(jobDAO).releaseLock(newJob.getId());
+        inOrder.verify(stepInvoker).invoke(newJob.getStepMethod(STEP_2));
+    }
+
+    @Test
+    public void startJob_interceptorViaHttp() {
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(interceptorService.getStepInterceptor(JOB_ID, STEP_2))
+                .thenReturn(StepInterceptor.builder().jobId(JOB_ID).jobStepId(STEP_2).arbitraryServer(SERVER).build());
+
+        jobService.startJob(JOB_ID, PARAMS);
+
+        InOrder inOrder = inOrder(jobDAO, stepInvoker);
+        inOrder.verify(jobDAO).saveJob(newJob);
+        inOrder.verify(jobDAO).releaseLock(newJob.getId());
+        inOrder.verify(stepInvoker).invokeJobMethodViaHttp("http://" + SERVER, newJob.getStepMethod(STEP_2));
+    }
+
+    @Test
+    public void retryJob_dispatchWrittenStepsWhenFailed() {
+        Job newJob = createNewJob();
+        newJob.getJobStep(STEP_1).setDelay(0);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+        when(interceptorService.getStepInterceptor(JOB_ID, STEP_2)).thenThrow(new RuntimeException("interceptor down"));
+
+        try {
+            jobService.retryJob(newJob.getId(), STEP_1);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(e.getMessage(), "interceptor down");
+        }
+
+        verify(jobDAO).saveChangedSteps(eq(newJob), any());
+        verify(stepInvoker).invoke(newJob.getStepMethod(STEP_1));
+    }
+
+    @Test
+    public void startJob_dispatchFailed() {
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+        doThrow(new RuntimeException("worker down")).when(stepInvoker).invoke(newJob.getStepMethod(STEP_2));
+
+        jobService.startJob(JOB_ID, PARAMS);
+
+        //按失败结果处理，等STEP_1有结果后再重试
+        assertFalse(newJob.getJobStep(STEP_2).isExecuting());
+        assertFalse(newJob.getJobStep(STEP_2).isSuccess());
+        assertEquals(newJob.getExecutingStepCount(), 1);
+    }
+
+    @Test
+    public void startJob_metrics() {
+        InMemoryJobMetrics jobMetrics = new InMemoryJobMetrics();
+        jobService.setJobMetrics(jobMetrics);
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        jobService.startJob(JOB_ID, PARAMS);
+        assertEquals(jobMetrics.getInFlightJobs(), 1);
+        assertEquals(jobMetrics.getInFlightSteps(), 2);
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.QUEUE).getCount(), 1);
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.DISPATCH).getCount(), 1);
+
+        jobService.onJobResult(JobResult.builder().jobSerialId(newJob.getId()).jobStepId(STEP_2).success(false).build());
+        jobService.onJobResult(JobResult.builder().jobSerialId(newJob.getId()).jobStepId(STEP_2).success(false).build());
+
+        assertEquals(jobMetrics.getInFlightSteps(), 1);
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.STEP_DURATION).getCount(), 1);
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.LOCK_WAIT).getCount(), 3);
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.LOCK_HOLD).getCount(), 3);
+    }
+
+    @Test
+    public void startJob_throttled() {
+        DispatchThrottle dispatchThrottle = new DispatchThrottle(new InMemoryLimitCounterStore(), delayExecutor);
+        dispatchThrottle.setJobLimit(JOB_ID, 1, 0);
+        jobService.setDispatchThrottle(dispatchThrottle);
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        jobService.startJob(JOB_ID, PARAMS);
+        verify(delayExecutor).execute(runnableArgumentCaptor.capture(), eq((long) DELAY_1));
+        runnableArgumentCaptor.getValue().run();
+
+        verify(stepInvoker).invoke(newJob.getStepMethod(STEP_2));
+        verify(stepInvoker, never()).invoke(newJob.getStepMethod(STEP_1));
+        assertEquals(dispatchThrottle.getWaiting(), 1);
+        //等待名额不算失败，不占用重试次数
+        assertTrue(newJob.getJobStep(STEP_1).isExecuting());
+        assertEquals(newJob.getJobStep(STEP_1).getTryTimes(), 1);
+
+        jobService.onJobResult(JobResult.builder().jobSerialId(newJob.getId()).jobStepId(STEP_2).success(true).build());
+
+        verify(stepInvoker).invoke(newJob.getStepMethod(STEP_1));
+        assertEquals(dispatchThrottle.getWaiting(), 0);
+    }
+
+    @Test
+    public void startJob_priorityDispatcher() {
+        PriorityDispatcher priorityDispatcher = new PriorityDispatcher(1);
+        jobService.setPriorityDispatcher(priorityDispatcher);
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        try {
+            jobService.startJob(JOB_ID, PARAMS);
+
+            verify(stepInvoker, timeout(1000)).invoke(newJob.getStepMethod(STEP_2));
+            jobService.onJobResult(JobResult.builder().jobSerialId(newJob.getId()).jobStepId(STEP_2).success(false).build());
+            //收到结果后还回发送中的名额
+            assertEquals(priorityDispatcher.getInFlight(), 0);
+        } finally {
+            priorityDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void startJob_priorityDispatcher_resultOnOtherNode() {
+        PriorityDispatcher priorityDispatcher = new PriorityDispatcher(1, 1, 200);
+        jobService.setPriorityDispatcher(priorityDispatcher);
+        JobServiceImpl otherNode = new JobServiceImpl();
+        otherNode.setJobDAO(jobDAO);
+        otherNode.setStepInvoker(stepInvoker);
+        otherNode.setInterceptorService(interceptorService);
+        otherNode.setDelayExecutor(delayExecutor);
+        Job running = createNewJob();
+        Job waiting = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(running, waiting);
+        when(jobDAO.getJob(running.getId())).thenReturn(running);
+
+        try {
+            jobService.startJob(JOB_ID, PARAMS);
+            jobService.startJob(JOB_ID, PARAMS);
+            verify(stepInvoker, timeout(1000)).invoke(running.getStepMethod(STEP_2));
+            otherNode.onJobResult(JobResult.builder().jobSerialId(running.getId()).jobStepId(STEP_2).success(false).build());
+
+            //结果在其他节点处理，本节点的名额到租约到期才收回
+            verify(stepInvoker, after(100).never()).invoke(waiting.getStepMethod(STEP_2));
+            verify(stepInvoker, timeout(1000)).invoke(waiting.getStepMethod(STEP_2));
+            assertEquals(priorityDispatcher.getExpired(), 1);
+        } finally {
+            priorityDispatcher.shutdown();
+        }
+    }
+
+    private Job createTimeoutJob() {
+        return Job.newJob(JobConfig.builder()
+                .id(JOB_ID)
+                .name(JOB_NAME)
+                .build(), Collections.singletonList(JobStepConfig.builder()
+                .delay(DELAY_2)
+                .maxTry(MAX_TRY_2)
+                .timeout(TIMEOUT_1)
+                .methodName(METHOD_1)
+                .stepId(STEP_1)
+                .stepName(STEP_NAME_1)
+                .build()), PARAMS);
+    }
+
+    @Test
+    public void stepTimeout_retry() {
+        Job newJob = createTimeoutJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        jobService.startJob(JOB_ID, PARAMS);
+        verify(delayExecutor).execute(runnableArgumentCaptor.capture(), delayCaptor.capture());
+        assertTrue(delayCaptor.getValue() <= TIMEOUT_1);
+        runnableArgumentCaptor.getValue().run();
+
+        //重试有退避延迟，重新发送交给delayExecutor，发送时才开始新的超时检查
+        verify(delayExecutor, times(2)).execute(any(Runnable.class), anyLong());
+        assertEquals(newJob.getJobStep(STEP_1).getTryTimes(), 2);
+        assertTrue(newJob.getJobStep(STEP_1).isExecuting());
+    }
+
+    @Test
+    public void stepTimeout_startWhenDispatched() {
+        DispatchThrottle dispatchThrottle = new DispatchThrottle(new InMemoryLimitCounterStore(), delayExecutor);
+        dispatchThrottle.setJobLimit(JOB_ID, 1, 0);
+        jobService.setDispatchThrottle(dispatchThrottle);
+        List<Runnable> records = new ArrayList<>();
+        jobService.setDispatchRecordExecutor(records::add);
+        Job running = createTimeoutJob();
+        Job waiting = createTimeoutJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(running, waiting);
+        when(jobDAO.getJob(running.getId())).thenReturn(running);
+        when(jobDAO.getJob(waiting.getId())).thenReturn(waiting);
+
+        jobService.startJob(JOB_ID, PARAMS);
+        jobService.startJob(JOB_ID, PARAMS);
+        //等待名额的步骤还没有开始超时检查
+        verify(delayExecutor, times(1)).execute(any(Runnable.class), eq((long) TIMEOUT_1));
+        waiting.getJobStep(STEP_1).setDispatchTime(1);
+
+        jobService.onJobResult(JobResult.builder().jobSerialId(running.getId()).jobStepId(STEP_1).success(true).build());
+
+        verify(stepInvoker).invoke(waiting.getStepMethod(STEP_1));
+        verify(delayExecutor, times(2)).execute(any(Runnable.class), eq((long) TIMEOUT_1));
+        //排过队的步骤在dispatchRecordExecutor里写入实际的发送时间，没有排队的不用写
+        assertEquals(records.size(), 1);
+        assertEquals(waiting.getJobStep(STEP_1).getDispatchTime(), 1);
+        records.get(0).run();
+        assertTrue(waiting.getJobStep(STEP_1).getDispatchTime() > 1);
+    }
+
+    @Test
+    public void stepTimeout_afterResult() {
+        Job newJob = createTimeoutJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        jobService.startJob(JOB_ID, PARAMS);
+        verify(delayExecutor).execute(runnableArgumentCaptor.capture(), anyLong());
+        jobService.onJobResult(JobResult.builder()
+                .jobStepId(STEP_1)
+                .success(true)
+                .jobSerialId(newJob.getId())
+                .build());
+        runnableArgumentCaptor.getValue().run();
+
+        verify(stepInvoker, times(1)).invoke(newJob.getStepMethod(STEP_1));
+        assertTrue(newJob.getJobStep(STEP_1).isSuccess());
+        //超时已经取消，不再加锁读取JOB
+        verify(jobDAO, times(2)).lock(newJob.getId());
     }
 
     @Test
@@ -208,6 +728,22 @@ public class JobServiceImplTest {
 
     }
 
+    @Test
+    public void recoverDelayedSteps_paged() {
+        jobService.setRecoverPageSize(1);
+        Job job1 = createNewJob();
+        Job job2 = createNewJob();
+        job2.getJobStep(STEP_1).setExecuting(true).setDispatchTime(System.currentTimeMillis() + 60000);
+        when(jobDAO.findPage(null, 1)).thenReturn(Collections.singletonList(job1));
+        when(jobDAO.findPage(job1.getId(), 1)).thenReturn(Collections.singletonList(job2));
+        when(jobDAO.findPage(job2.getId(), 1)).thenReturn(Collections.emptyList());
+
+        jobService.recoverDelayedSteps();
+
+        verify(jobDAO, never()).findAll();
+        verify(delayExecutor, times(1)).execute(any(), anyLong());
+    }
+
     @Test
     public void getExecutingJob() {
 
@@ -225,6 +761,42 @@ public class JobServiceImplTest {
 
     @Test
     public void deleteJob() {
+        InMemoryLimitCounterStore counterStore = new InMemoryLimitCounterStore();
+        DispatchThrottle dispatchThrottle = new DispatchThrottle(counterStore, delayExecutor);
+        dispatchThrottle.setJobLimit(JOB_ID, 1, 0);
+        jobService.setDispatchThrottle(dispatchThrottle);
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+        jobService.startJob(JOB_ID, PARAMS);
+        assertEquals(counterStore.getCount("job:" + JOB_ID + ":in_flight"), 1);
+
+        jobService.deleteJob(newJob.getId());
+
+        //发送中的步骤还回名额
+        verify(jobDAO).deleteJobById(newJob.getId());
+        assertEquals(counterStore.getCount("job:" + JOB_ID + ":in_flight"), 0);
+    }
+
+    @Test
+    public void deleteJob_priorityDispatcher() {
+        PriorityDispatcher priorityDispatcher = new PriorityDispatcher(1, 1);
+        jobService.setPriorityDispatcher(priorityDispatcher);
+        Job newJob = createNewJob();
+        when(jobDAO.newJob(JOB_ID, PARAMS)).thenReturn(newJob);
+        when(jobDAO.getJob(newJob.getId())).thenReturn(newJob);
+
+        try {
+            jobService.startJob(JOB_ID, PARAMS);
+            verify(stepInvoker, timeout(1000)).invoke(newJob.getStepMethod(STEP_2));
+            assertEquals(priorityDispatcher.getInFlight(), 1);
+
+            jobService.deleteJob(newJob.getId());
+
+            assertEquals(priorityDispatcher.getInFlight(), 0);
+        } finally {
+            priorityDispatcher.shutdown();
+        }
     }
 
     @Test
@@ -0,0 +1,54 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.job.JobDAO;
+import cn.bobdeng.job.domain.job.MeteredJobDAO;
+import cn.bobdeng.job.domain.metrics.InMemoryJobMetrics;
+import cn.bobdeng.job.domain.metrics.JobMetrics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MeteredJobDAOTest {
+    private static final String JOB_SERIAL = "job_serial";
+    @Mock
+    private JobDAO jobDAO;
+    private InMemoryJobMetrics jobMetrics;
+    private MeteredJobDAO meteredJobDAO;
+
+    @Before
+    public void setUp() {
+        jobMetrics = new InMemoryJobMetrics();
+        meteredJobDAO = new MeteredJobDAO(jobDAO, jobMetrics);
+    }
+
+    @Test
+    public void getJob() {
+        Job job = new Job();
+        when(jobDAO.getJob(JOB_SERIAL)).thenReturn(job);
+
+        assertSame(meteredJobDAO.getJob(JOB_SERIAL), job);
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.DAO_GET_JOB).getCount(), 1);
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.DAO_SAVE_JOB).getCount(), 0);
+    }
+
+    @Test
+    public void saveJob_failed() {
+        Job job = new Job();
+        doThrow(new RuntimeException("store down")).when(jobDAO).saveJob(job);
+
+        try {
+            meteredJobDAO.saveJob(job);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals(e.getMessage(), "store down");
+        }
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.DAO_SAVE_JOB).getCount(), 1);
+    }
+}
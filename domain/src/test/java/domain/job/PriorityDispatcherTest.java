@@ -0,0 +1,101 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.entity.JobMethod;
+import cn.bobdeng.job.domain.job.PriorityDispatcher;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class PriorityDispatcherTest {
+    private PriorityDispatcher priorityDispatcher;
+
+    @After
+    public void tearDown() {
+        priorityDispatcher.shutdown();
+    }
+
+    @Test
+    public void submit_order() throws Exception {
+        priorityDispatcher = new PriorityDispatcher(1);
+        CountDownLatch busy = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(6);
+        List<String> order = new CopyOnWriteArrayList<>();
+        //占住唯一的发送线程，之后提交的都在队列里排序
+        priorityDispatcher.submit(0, 0, stepMethod("busy", "busy"), queued -> {
+            started.countDown();
+            try {
+                busy.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        started.await(1, TimeUnit.SECONDS);
+        submit(order, done, 0, 100, "batch", "batch_1");
+        submit(order, done, 0, 100, "batch", "batch_2");
+        submit(order, done, 0, 100, "report", "report_1");
+        submit(order, done, 0, 50, "batch", "old_batch");
+        submit(order, done, 10, 200, "critical", "critical_1");
+        submit(order, done, 0, 100, "report", "report_2");
+        busy.countDown();
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        //同一个优先级在jobId之间轮流，同一个jobId里开始早的先发送，发送线程被占住时提交的都排过队
+        assertEquals(order, Arrays.asList("critical_1:queued", "old_batch:queued", "report_1:queued", "batch_1:queued", "report_2:queued", "batch_2:queued"));
+    }
+
+    @Test
+    public void submit_maxInFlight() throws Exception {
+        priorityDispatcher = new PriorityDispatcher(2, 1);
+        CountDownLatch done = new CountDownLatch(2);
+        List<String> order = new CopyOnWriteArrayList<>();
+        submit(order, done, 0, 100, "batch", "batch_1");
+        submit(order, done, 0, 100, "batch", "batch_2");
+
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        assertEquals(order.size(), 1);
+        assertEquals(priorityDispatcher.getInFlight(), 1);
+
+        priorityDispatcher.release("batch_1", "step");
+
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        //没有名额时提交的步骤排过队
+        assertEquals(order.get(1), "batch_2:queued");
+    }
+
+    @Test
+    public void submit_slotLeaseExpired() throws Exception {
+        priorityDispatcher = new PriorityDispatcher(1, 1, 50);
+        CountDownLatch done = new CountDownLatch(2);
+        List<String> order = new CopyOnWriteArrayList<>();
+        submit(order, done, 0, 100, "batch", "batch_1");
+        submit(order, done, 0, 100, "batch", "batch_2");
+
+        //batch_1的结果没有回到本节点，名额到期后收回
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(order.get(1), "batch_2:queued");
+        assertEquals(priorityDispatcher.getExpired(), 1);
+        assertEquals(priorityDispatcher.getInFlight(), 1);
+    }
+
+    private void submit(List<String> order, CountDownLatch done, int priority, long beginTime, String jobId, String name) {
+        priorityDispatcher.submit(priority, beginTime, stepMethod(jobId, name), queued -> {
+            order.add(name + (queued ? ":queued" : ""));
+            done.countDown();
+        });
+    }
+
+    private static JobMethod stepMethod(String jobId, String serial) {
+        return JobMethod.builder().jobId(jobId).jobSerialId(serial).jobStepId("step").build();
+    }
+}
@@ -0,0 +1,56 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.job.RepeatKeyFilter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class RepeatKeyFilterTest {
+    private static final long BUCKET_MS = 60000;
+    private static final String KEY_1 = "key_1";
+    private static final String KEY_2 = "key_2";
+    private final AtomicLong now = new AtomicLong(1000);
+    private final RepeatKeyFilter filter = new RepeatKeyFilter(1000, 0.01, BUCKET_MS, now::get);
+
+    @Test
+    public void mightContainAny_warmUp() {
+        assertTrue(filter.mightContainAny(Collections.singletonList(KEY_1)));
+
+        now.addAndGet(BUCKET_MS);
+
+        assertFalse(filter.mightContainAny(Collections.singletonList(KEY_1)));
+        assertEquals(filter.getSkipped(), 1);
+    }
+
+    @Test
+    public void mightContainAny_rotate() {
+        now.addAndGet(BUCKET_MS);
+        filter.put(KEY_1);
+        assertTrue(filter.mightContainAny(Collections.singletonList(KEY_1)));
+
+        //上一个桶里的Key还在
+        now.addAndGet(BUCKET_MS);
+        filter.put(KEY_2);
+        assertTrue(filter.mightContainAny(Collections.singletonList(KEY_1)));
+
+        now.addAndGet(BUCKET_MS);
+        assertFalse(filter.mightContainAny(Collections.singletonList(KEY_1)));
+        assertTrue(filter.mightContainAny(Collections.singletonList(KEY_2)));
+    }
+
+    @Test
+    public void metrics() {
+        filter.recordFalsePositive();
+        now.addAndGet(BUCKET_MS);
+        filter.mightContainAny(Collections.singletonList(KEY_1));
+
+        assertEquals(filter.getObservedFpp(), 0.5, 0.001);
+        assertTrue(filter.getMemoryBytes() > 0);
+    }
+}
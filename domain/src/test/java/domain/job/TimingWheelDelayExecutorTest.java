@@ -0,0 +1,60 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.job.TimingWheelDelayExecutor;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class TimingWheelDelayExecutorTest {
+    public static final long TICK_MS = 1;
+    private final TimingWheelDelayExecutor delayExecutor = new TimingWheelDelayExecutor(TICK_MS, Runnable::run);
+
+    @After
+    public void tearDown() {
+        delayExecutor.shutdown();
+    }
+
+    @Test
+    public void execute_order() throws Exception {
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+        //300毫秒超过第一层的256格，需要从第二层转下来
+        delayExecutor.execute(() -> {
+            executed.add(300);
+            latch.countDown();
+        }, 300);
+        delayExecutor.execute(() -> {
+            executed.add(20);
+            latch.countDown();
+        }, 20);
+        delayExecutor.execute(() -> {
+            executed.add(0);
+            latch.countDown();
+        }, 0);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(executed.get(0).intValue(), 0);
+        assertEquals(executed.get(1).intValue(), 20);
+        assertEquals(executed.get(2).intValue(), 300);
+        assertEquals(delayExecutor.getPendingCount(), 0);
+    }
+
+    @Test
+    public void execute_notEarly() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        long begin = System.nanoTime();
+        delayExecutor.execute(latch::countDown, 50);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) >= 50);
+    }
+}
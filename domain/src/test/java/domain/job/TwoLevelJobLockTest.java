@@ -0,0 +1,84 @@
+package domain.job;
+
+import cn.bobdeng.job.domain.job.JobDAO;
+import cn.bobdeng.job.domain.job.TwoLevelJobLock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TwoLevelJobLockTest {
+    public static final String JOB_SERIAL = "job_serial";
+    @Mock
+    private JobDAO jobDAO;
+
+    @Test
+    public void lock_single() {
+        TwoLevelJobLock jobLock = new TwoLevelJobLock(jobDAO);
+        jobLock.lock(JOB_SERIAL);
+        jobLock.unlock(JOB_SERIAL);
+        jobLock.lock(JOB_SERIAL);
+        jobLock.unlock(JOB_SERIAL);
+
+        verify(jobDAO, times(2)).lock(JOB_SERIAL);
+        verify(jobDAO, times(2)).releaseLock(JOB_SERIAL);
+        assertEquals(jobLock.getAcquisitions(), 2);
+        assertEquals(jobLock.getHandOffs(), 0);
+    }
+
+    @Test
+    public void lock_handOff() throws Exception {
+        TwoLevelJobLock jobLock = new TwoLevelJobLock(jobDAO);
+        jobLock.lock(JOB_SERIAL);
+        CountDownLatch locked = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            jobLock.lock(JOB_SERIAL);
+            locked.countDown();
+            jobLock.unlock(JOB_SERIAL);
+        });
+        waiter.start();
+        while (jobLock.getQueueLength(JOB_SERIAL) == 0) {
+            Thread.sleep(1);
+        }
+        jobLock.unlock(JOB_SERIAL);
+        assertTrue(locked.await(5, TimeUnit.SECONDS));
+        waiter.join();
+
+        verify(jobDAO, times(1)).lock(JOB_SERIAL);
+        verify(jobDAO, times(1)).releaseLock(JOB_SERIAL);
+        assertEquals(jobLock.getHandOffs(), 1);
+        assertEquals(jobLock.getDistributedAcquisitions(), 1);
+    }
+
+    @Test
+    public void lock_maxHandOffs() throws Exception {
+        TwoLevelJobLock jobLock = new TwoLevelJobLock(jobDAO, 0);
+        jobLock.lock(JOB_SERIAL);
+        Thread waiter = new Thread(() -> {
+            jobLock.lock(JOB_SERIAL);
+            jobLock.unlock(JOB_SERIAL);
+        });
+        waiter.start();
+        while (jobLock.getQueueLength(JOB_SERIAL) == 0) {
+            Thread.sleep(1);
+        }
+        jobLock.unlock(JOB_SERIAL);
+        waiter.join();
+
+        verify(jobDAO, times(2)).lock(JOB_SERIAL);
+        verify(jobDAO, times(2)).releaseLock(JOB_SERIAL);
+        assertEquals(jobLock.getHandOffs(), 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unlock_notHeld() {
+        new TwoLevelJobLock(jobDAO).unlock(JOB_SERIAL);
+    }
+}
@@ -0,0 +1,49 @@
+package domain.metrics;
+
+import cn.bobdeng.job.domain.metrics.InMemoryJobMetrics;
+import cn.bobdeng.job.domain.metrics.JobMetrics;
+import cn.bobdeng.job.domain.metrics.LogHistogram;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class InMemoryJobMetricsTest {
+
+    @Test
+    public void histogram() {
+        LogHistogram histogram = new LogHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-1);
+
+        assertEquals(histogram.getCount(), 101);
+        assertEquals(histogram.getSum(), 5050);
+        assertEquals(histogram.getMax(), 100);
+        assertEquals(histogram.getPercentile(50), 63);
+        assertEquals(histogram.getPercentile(100), 100);
+        assertEquals(new LogHistogram().getPercentile(99), 0);
+    }
+
+    @Test
+    public void record() {
+        InMemoryJobMetrics jobMetrics = new InMemoryJobMetrics();
+        jobMetrics.record(JobMetrics.Timer.LOCK_WAIT, 1000);
+        jobMetrics.retry("method_1");
+        jobMetrics.retry("method_1");
+        jobMetrics.jobStarted();
+        jobMetrics.stepDispatched();
+        jobMetrics.stepFinished();
+
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.LOCK_WAIT).getCount(), 1);
+        assertEquals(jobMetrics.getHistogram(JobMetrics.Timer.LOCK_HOLD).getCount(), 0);
+        assertEquals(jobMetrics.getRetries("method_1"), 2);
+        assertEquals(jobMetrics.getRetries("method_2"), 0);
+        assertEquals((long) jobMetrics.getRetries().get("method_1"), 2L);
+        assertEquals(jobMetrics.getInFlightJobs(), 1);
+        assertEquals(jobMetrics.getInFlightSteps(), 0);
+    }
+}
@@ -0,0 +1,72 @@
+package domain.shard;
+
+import cn.bobdeng.job.domain.shard.ConsistentHashRing;
+import cn.bobdeng.job.domain.shard.InMemoryMembershipProvider;
+import cn.bobdeng.job.domain.shard.JobShardRouter;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class JobShardRouterTest {
+    public static final String NODE_1 = "node_1";
+    public static final String NODE_2 = "node_2";
+    public static final String NODE_3 = "node_3";
+    public static final int KEYS = 10000;
+
+    @Test
+    public void nodeFor_balanced() {
+        ConsistentHashRing ring = ConsistentHashRing.of(Arrays.asList(NODE_1, NODE_2, NODE_3));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            counts.merge(ring.nodeFor("job_" + i), 1, Integer::sum);
+        }
+        assertEquals(counts.size(), 3);
+        counts.values().forEach(count -> assertTrue(count > KEYS / 5));
+    }
+
+    @Test
+    public void nodeFor_empty() {
+        assertNull(ConsistentHashRing.of(Collections.emptyList()).nodeFor("job"));
+    }
+
+    @Test
+    public void rebalance_onlyMovesToNewNode() {
+        InMemoryMembershipProvider membership = new InMemoryMembershipProvider(NODE_1);
+        membership.join(NODE_2);
+        JobShardRouter router = new JobShardRouter(membership);
+        AtomicInteger rebalanced = new AtomicInteger();
+        router.addRebalanceListener(rebalanced::incrementAndGet);
+        Map<String, String> owners = new HashMap<>();
+        for (int i = 0; i < KEYS; i++) {
+            owners.put("job_" + i, router.ownerOf("job_" + i));
+        }
+
+        membership.join(NODE_3);
+
+        assertEquals(rebalanced.get(), 1);
+        owners.forEach((key, owner) -> {
+            String newOwner = router.ownerOf(key);
+            assertTrue(newOwner.equals(owner) || newOwner.equals(NODE_3));
+        });
+    }
+
+    @Test
+    public void isLocal() {
+        InMemoryMembershipProvider membership = new InMemoryMembershipProvider(NODE_1);
+        JobShardRouter router = new JobShardRouter(membership);
+        assertTrue(router.isLocal("job"));
+        membership.join(NODE_2);
+        membership.leave(NODE_1);
+        assertFalse(router.isLocal("job"));
+        assertEquals(router.ownerOf("job"), NODE_2);
+    }
+}
@@ -0,0 +1,279 @@
+package domain.store;
+
+import cn.bobdeng.job.domain.entity.Job;
+import cn.bobdeng.job.domain.entity.JitterBackoff;
+import cn.bobdeng.job.domain.entity.JobConfig;
+import cn.bobdeng.job.domain.entity.JobMethod;
+import cn.bobdeng.job.domain.entity.JobResult;
+import cn.bobdeng.job.domain.entity.JobStepConfig;
+import cn.bobdeng.job.domain.entity.JobSummary;
+import cn.bobdeng.job.domain.entity.JobSummaryQuery;
+import cn.bobdeng.job.domain.job.JobServiceImpl;
+import cn.bobdeng.job.domain.job.StepInvoker;
+import cn.bobdeng.job.domain.interceptor.InterceptorService;
+import cn.bobdeng.job.domain.store.EmbeddedJobDAO;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+@RunWith(JUnit4.class)
+public class EmbeddedJobDAOTest {
+    private static final String JOB_ID = "job_id";
+    private static final String JOB_NAME = "job_name";
+    private static final String STEP_1 = "step_1";
+    private static final String STEP_2 = "step_2";
+    private static final String PARAMS = "{'params':1}";
+    private static final String KEY = "key";
+    private static final int PRIORITY = 5;
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private EmbeddedJobDAO jobDAO;
+
+    @After
+    public void tearDown() throws Exception {
+        if (jobDAO != null) {
+            jobDAO.close();
+        }
+    }
+
+    private EmbeddedJobDAO open(long snapshotEveryRecords) throws Exception {
+        if (jobDAO != null) {
+            jobDAO.close();
+        }
+        jobDAO = new EmbeddedJobDAO(folder.getRoot().toPath(), true, snapshotEveryRecords);
+        return jobDAO;
+    }
+
+    private void givenJobConfig() {
+        jobDAO.saveJobConfig(JobConfig.builder().id(JOB_ID).name(JOB_NAME).priority(PRIORITY).build(), Arrays.asList(
+                JobStepConfig.builder().jobId(JOB_ID).stepId(STEP_1).methodName("method_1").delay(0).maxTry(3)
+                        .retryBackoff(new JitterBackoff(100, 1000)).build(),
+                JobStepConfig.builder().jobId(JOB_ID).stepId(STEP_2).methodName("method_2").delay(0).maxTry(3)
+                        .preJobs(Collections.singleton(STEP_1)).build()));
+    }
+
+    @Test
+    public void saveJob_inMemory() {
+        jobDAO = new EmbeddedJobDAO();
+        givenJobConfig();
+        Job job = jobDAO.newJob(JOB_ID, PARAMS);
+        job.setVersion(1);
+
+        jobDAO.saveJob(job);
+        Job loaded = jobDAO.getJob(job.getId());
+        loaded.updateStepRuning(loaded.getJobStep(STEP_1));
+
+        assertEquals(jobDAO.getJobVersion(job.getId()), 1);
+        assertEquals(jobDAO.getJob(job.getId()).getSteps(), job.getSteps());
+        assertEquals(jobDAO.getJobConfig(JOB_ID).getName(), JOB_NAME);
+    }
+
+    @Test
+    public void reopen_replayJournal() throws Exception {
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+        givenJobConfig();
+        Job job = jobDAO.newJob(JOB_ID, PARAMS);
+        Job deleted = jobDAO.newJob(JOB_ID, PARAMS);
+        jobDAO.saveJobs(Arrays.asList(job, deleted));
+        job.updateStepRuning(job.getJobStep(STEP_1));
+        job.setVersion(2);
+        jobDAO.saveChangedSteps(job, Collections.singletonList(job.getJobStep(STEP_1)));
+        jobDAO.deleteJobById(deleted.getId());
+        jobDAO.putKey(KEY, JobServiceImpl.OK, 60000);
+
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+
+        Job loaded = jobDAO.getJob(job.getId());
+        assertEquals(loaded.getSteps(), job.getSteps());
+        assertEquals(loaded.getPriority(), PRIORITY);
+        assertEquals(loaded.getJobStep(STEP_1).getRetryBackoff(), new JitterBackoff(100, 1000));
+        assertEquals(jobDAO.getJobVersion(job.getId()), 2);
+        assertNull(jobDAO.getJob(deleted.getId()));
+        assertEquals(jobDAO.getKey(KEY), JobServiceImpl.OK);
+        assertEquals(jobDAO.getAllJobConfig().size(), 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void saveJobConfig_customBackoff() {
+        jobDAO = new EmbeddedJobDAO();
+        jobDAO.saveJobConfig(JobConfig.builder().id(JOB_ID).name(JOB_NAME).build(), Collections.singletonList(
+                JobStepConfig.builder().jobId(JOB_ID).stepId(STEP_1).methodName("method_1").delay(0).maxTry(3)
+                        .retryBackoff(retry -> 1000).build()));
+    }
+
+    @Test
+    public void reopen_snapshot() throws Exception {
+        open(3);
+        givenJobConfig();
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Job job = jobDAO.newJob(JOB_ID, PARAMS + i);
+            jobDAO.saveJob(job);
+            jobs.add(job);
+        }
+        EmbeddedJobDAO closed = jobDAO;
+
+        open(3);
+
+        assertTrue(closed.getSnapshots() > 0);
+        assertEquals(jobDAO.getJobCount(), 5);
+        jobs.forEach(job -> assertEquals(jobDAO.getJob(job.getId()).getParams(), job.getParams()));
+    }
+
+    @Test
+    public void reopen_snapshotPage() throws Exception {
+        open(3);
+        givenJobConfig();
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Job job = jobDAO.newJob(JOB_ID, PARAMS + i);
+            jobDAO.saveJob(job);
+            jobs.add(job);
+        }
+        jobs.sort(Comparator.comparing(Job::getId));
+
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+        Job changed = jobDAO.getJob(jobs.get(0).getId());
+        changed.updateStepRuning(changed.getJobStep(STEP_1));
+        changed.setVersion(1);
+        jobDAO.saveChangedSteps(changed, Collections.singletonList(changed.getJobStep(STEP_1)));
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+
+        List<Job> first = jobDAO.findPage(null, 2);
+        List<Job> second = jobDAO.findPage(first.get(1).getId(), 2);
+        List<Job> last = jobDAO.findPage(second.get(1).getId(), 2);
+        assertEquals(first.get(0).getId(), jobs.get(0).getId());
+        assertEquals(first.get(0).getSteps(), changed.getSteps());
+        assertEquals(jobDAO.getJobVersion(changed.getId()), 1);
+        assertEquals(second.get(0).getId(), jobs.get(2).getId());
+        assertEquals(last.size(), 1);
+        assertEquals(last.get(0).getParams(), jobs.get(4).getParams());
+    }
+
+    @Test
+    public void findSummaryPage() throws Exception {
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+        givenJobConfig();
+        jobDAO.saveJobConfig(JobConfig.builder().id("other_job").name("other").build(), Collections.singletonList(
+                JobStepConfig.builder().jobId("other_job").stepId(STEP_1).methodName("method_1").delay(0).maxTry(1).build()));
+        List<Job> jobs = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Job job = jobDAO.newJob(JOB_ID, PARAMS + i);
+            if (i % 2 == 0) {
+                job.updateStepRuning(job.getJobStep(STEP_1));
+            }
+            jobs.add(job);
+        }
+        jobs.add(jobDAO.newJob("other_job", PARAMS));
+        jobDAO.saveJobs(jobs);
+        JobSummaryQuery executing = JobSummaryQuery.builder().jobId(JOB_ID).stepState(JobSummary.StepState.EXECUTING).build();
+
+        List<JobSummary> first = jobDAO.findSummaryPage(executing, null, 1);
+        List<JobSummary> second = jobDAO.findSummaryPage(executing, first.get(0).getId(), 2);
+        List<JobSummary> all = new ArrayList<>();
+        jobDAO.forEachSummary(JobSummaryQuery.builder().build(), all::add);
+
+        assertEquals(first.size(), 1);
+        assertEquals(second.size(), 1);
+        assertEquals(first.get(0).getName(), JOB_NAME);
+        assertEquals(first.get(0).getStepCount(JobSummary.StepState.EXECUTING), 1);
+        assertEquals(first.get(0).getStepCount(JobSummary.StepState.WAITING), 1);
+        assertEquals(all.size(), 5);
+        assertEquals(jobDAO.findSummaryPage(JobSummaryQuery.builder().jobId("other_job").build(), null, 10).get(0).getName(), "other");
+    }
+
+    @Test
+    public void reopen_brokenJournalTail() throws Exception {
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+        givenJobConfig();
+        Job job = jobDAO.newJob(JOB_ID, PARAMS);
+        jobDAO.saveJob(job);
+        jobDAO.close();
+        jobDAO = null;
+        //写了一半的记录
+        Path journal = folder.getRoot().toPath().resolve("journal.log");
+        Files.write(journal, new byte[]{0, 0, 0, 100, 1, 2, 3}, StandardOpenOption.APPEND);
+
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+        jobDAO.putKey(KEY, JobServiceImpl.OK, 60000);
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+
+        assertNotNull(jobDAO.getJob(job.getId()));
+        assertEquals(jobDAO.getKey(KEY), JobServiceImpl.OK);
+    }
+
+    @Test
+    public void reopen_oldJournal() throws Exception {
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+        givenJobConfig();
+        Job job = jobDAO.newJob(JOB_ID, PARAMS);
+        jobDAO.saveJob(job);
+        jobDAO.close();
+        jobDAO = null;
+        //切换日志后快照没有写完
+        Path root = folder.getRoot().toPath();
+        Files.move(root.resolve("journal.log"), root.resolve("journal.old"));
+
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+        jobDAO.putKey(KEY, JobServiceImpl.OK, 60000);
+        jobDAO.snapshot();
+        open(EmbeddedJobDAO.DEFAULT_SNAPSHOT_EVERY_RECORDS);
+
+        assertFalse(Files.exists(root.resolve("journal.old")));
+        assertNotNull(jobDAO.getJob(job.getId()));
+        assertEquals(jobDAO.getKey(KEY), JobServiceImpl.OK);
+    }
+
+    @Test
+    public void releaseLock_otherThread() throws Exception {
+        jobDAO = new EmbeddedJobDAO();
+        jobDAO.lock(JOB_ID);
+        Thread releaser = new Thread(() -> jobDAO.releaseLock(JOB_ID));
+        releaser.start();
+        releaser.join();
+
+        jobDAO.lock(JOB_ID);
+        jobDAO.releaseLock(JOB_ID);
+    }
+
+    @Test
+    public void jobService_runToEnd() {
+        jobDAO = new EmbeddedJobDAO();
+        givenJobConfig();
+        List<JobMethod> invoked = new ArrayList<>();
+        StepInvoker stepInvoker = mock(StepInvoker.class, invocation -> {
+            if (invocation.getMethod().getName().equals("invoke")) {
+                invoked.add(invocation.getArgument(0));
+                return null;
+            }
+            return invocation.callRealMethod();
+        });
+        JobServiceImpl jobService = new JobServiceImpl();
+        jobService.setJobDAO(jobDAO);
+        jobService.setStepInvoker(stepInvoker);
+        jobService.setInterceptorService(mock(InterceptorService.class));
+
+        jobService.startJob(JOB_ID, PARAMS);
+        String jobSerialId = invoked.get(0).getJobSerialId();
+        jobService.onJobResult(JobResult.builder().jobSerialId(jobSerialId).jobStepId(STEP_1).success(true).build());
+        assertEquals(invoked.get(1).getJobStepId(), STEP_2);
+        jobService.onJobResult(JobResult.builder().jobSerialId(jobSerialId).jobStepId(STEP_2).success(true).build());
+
+        assertNull(jobDAO.getJob(jobSerialId));
+    }
+}